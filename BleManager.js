@@ -8,9 +8,9 @@ class BleManager  {
     this.isPeripheralConnected = this.isPeripheralConnected.bind(this);
   }
 
-  read(peripheralId, serviceUUID, characteristicUUID) {
+  read(peripheralId, serviceUUID, characteristicUUID, priority, encoding) {
     return new Promise((fulfill, reject) => {
-      bleManager.read(peripheralId, serviceUUID, characteristicUUID, (error, data) => {
+      bleManager.read(peripheralId, serviceUUID, characteristicUUID, priority, encoding, (error, data) => {
         if (error) {
           reject(new Error(error));
         } else {
@@ -20,6 +20,62 @@ class BleManager  {
     });
   }
 
+  requestMTU(peripheralId, mtu) {
+    return new Promise((fulfill, reject) => {
+      bleManager.requestMTU(peripheralId, mtu, (error, mtu) => {
+        if (error) {
+          reject(new Error(error));
+        } else {
+          fulfill(mtu);
+        }
+      });
+    });
+  }
+
+  setPreferredPhy(peripheralId, txPhy, rxPhy, phyOptions) {
+    if (phyOptions == null) {
+      phyOptions = 0;
+    }
+    return new Promise((fulfill, reject) => {
+      bleManager.setPreferredPhy(peripheralId, txPhy, rxPhy, phyOptions, (error, phy) => {
+        if (error) {
+          reject(new Error(error));
+        } else {
+          fulfill(phy);
+        }
+      });
+    });
+  }
+
+  readPhy(peripheralId) {
+    return new Promise((fulfill, reject) => {
+      bleManager.readPhy(peripheralId, (error, phy) => {
+        if (error) {
+          reject(new Error(error));
+        } else {
+          fulfill(phy);
+        }
+      });
+    });
+  }
+
+  requestConnectionPriority(peripheralId, priority) {
+    return new Promise((fulfill, reject) => {
+      // the bridge cannot turn a missing priority into an int
+      if (typeof priority !== 'number') {
+        reject(new Error('Invalid connection priority: ' + priority));
+        return;
+      }
+      bleManager.requestConnectionPriority(peripheralId, priority, (error) => {
+        if (error) {
+          reject(new Error(error));
+        } else {
+          fulfill();
+        }
+      });
+    });
+  }
+
   readRSSI(peripheralId) {
     return new Promise((fulfill, reject) => {
       bleManager.readRSSI(peripheralId, (error, rssi) => {
@@ -44,12 +100,39 @@ class BleManager  {
     });
   }
 
-  write(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize) {
+  write(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, priority) {
+    // (ANDROID) 0 makes the packets fill the negotiated MTU
     if (maxByteSize == null) {
-      maxByteSize = 20;
+      maxByteSize = React.Platform.OS === 'ios' ? 20 : 0;
     }
     return new Promise((fulfill, reject) => {
-      bleManager.write(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, (error) => {
+      const callback = (error) => {
+        if (error) {
+          reject(new Error(error));
+        } else {
+          fulfill();
+        }
+      };
+      // (ANDROID) a string is the Base64 encoding of the data
+      if (typeof data === 'string') {
+        if (React.Platform.OS === 'ios') {
+          reject(new Error('Base64 data is only supported on Android'));
+          return;
+        }
+        bleManager.writeBase64(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, priority, callback);
+      } else {
+        bleManager.write(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, priority, callback);
+      }
+    });
+  }
+
+  writeReliable(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, priority) {
+    // 0 makes the parts fill a prepare write request
+    if (maxByteSize == null) {
+      maxByteSize = 0;
+    }
+    return new Promise((fulfill, reject) => {
+      bleManager.writeReliable(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, priority, (error) => {
         if (error) {
           reject(new Error(error));
         } else {
@@ -59,20 +142,100 @@ class BleManager  {
     });
   }
 
-  writeWithoutResponse(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime) {
+  writeFile(peripheralId, serviceUUID, characteristicUUID, path, options) {
+    if (options == null) {
+      options = {};
+    }
+    return new Promise((fulfill, reject) => {
+      bleManager.writeFile(peripheralId, serviceUUID, characteristicUUID, path, options, (error, bytesSent) => {
+        if (error) {
+          // the offset to resume the transfer from
+          const transferError = new Error(error);
+          transferError.bytesSent = bytesSent;
+          reject(transferError);
+        } else {
+          fulfill(bytesSent);
+        }
+      });
+    });
+  }
+
+  pauseTransfer(transferId) {
+    return new Promise((fulfill, reject) => {
+      bleManager.pauseTransfer(transferId, (error) => {
+        if (error) {
+          reject(new Error(error));
+        } else {
+          fulfill();
+        }
+      });
+    });
+  }
+
+  resumeTransfer(transferId) {
+    return new Promise((fulfill, reject) => {
+      bleManager.resumeTransfer(transferId, (error) => {
+        if (error) {
+          reject(new Error(error));
+        } else {
+          fulfill();
+        }
+      });
+    });
+  }
+
+  cancelTransfer(transferId) {
+    return new Promise((fulfill, reject) => {
+      bleManager.cancelTransfer(transferId, (error) => {
+        if (error) {
+          reject(new Error(error));
+        } else {
+          fulfill();
+        }
+      });
+    });
+  }
+
+  writeWithoutResponse(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime, priority) {
+    // (ANDROID) 0 makes the packets fill the negotiated MTU
     if (maxByteSize == null) {
-      maxByteSize = 20;
+      maxByteSize = React.Platform.OS === 'ios' ? 20 : 0;
     }
     if (queueSleepTime == null) {
       queueSleepTime = 10
     }
     return new Promise((fulfill, reject) => {
-      bleManager.writeWithoutResponse(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime, (error) => {
+      const callback = (error) => {
         if (error) {
           reject(new Error(error));
         } else {
           fulfill();
         }
+      };
+      // (ANDROID) a string is the Base64 encoding of the data
+      if (typeof data === 'string') {
+        if (React.Platform.OS === 'ios') {
+          reject(new Error('Base64 data is only supported on Android'));
+          return;
+        }
+        bleManager.writeWithoutResponseBase64(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime, priority, callback);
+      } else {
+        bleManager.writeWithoutResponse(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime, priority, callback);
+      }
+    });
+  }
+
+  executeBatch(peripheralId, operations, options) {
+    if (options == null) {
+      options = {};
+    }
+    return new Promise((fulfill, reject) => {
+      bleManager.executeBatch(peripheralId, operations, options, (error, results) => {
+        if (error) {
+          reject(new Error(error));
+        } else {
+          fulfill(results);
+        }
       });
     });
   }
@@ -113,9 +276,12 @@ class BleManager  {
     });
   }
 
-  startNotification(peripheralId, serviceUUID, characteristicUUID) {
+  startNotification(peripheralId, serviceUUID, characteristicUUID, options) {
+    if (options == null) {
+      options = {};
+    }
     return new Promise((fulfill, reject) => {
-      bleManager.startNotification(peripheralId, serviceUUID, characteristicUUID, (error) => {
+      bleManager.startNotification(peripheralId, serviceUUID, characteristicUUID, options, (error) => {
         if (error) {
           reject(new Error(error));
         } else {
@@ -125,6 +291,21 @@ class BleManager  {
     });
   }
 
+  drainNotifications(peripheralId, serviceUUID, characteristicUUID, max) {
+    if (max == null) {
+      max = 0;
+    }
+    return new Promise((fulfill, reject) => {
+      bleManager.drainNotifications(peripheralId, serviceUUID, characteristicUUID, max, (error, notifications) => {
+        if (error) {
+          reject(new Error(error));
+        } else {
+          fulfill(notifications);
+        }
+      });
+    });
+  }
+
   stopNotification(peripheralId, serviceUUID, characteristicUUID) {
     return new Promise((fulfill, reject) => {
       bleManager.stopNotification(peripheralId, serviceUUID, characteristicUUID, (error) => {
@@ -0,0 +1,197 @@
+package it.innove;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The AD structures of a scan record (Bluetooth Core Specification, Vol 3, Part C, Section 11).
+ * Plain Java so the same parsing is used by the legacy and the lollipop scan managers.
+ */
+public class AdvertisingData {
+
+	public static final int TYPE_FLAGS = 0x01;
+	public static final int TYPE_INCOMPLETE_SERVICE_UUIDS_16_BIT = 0x02;
+	public static final int TYPE_COMPLETE_SERVICE_UUIDS_16_BIT = 0x03;
+	public static final int TYPE_INCOMPLETE_SERVICE_UUIDS_32_BIT = 0x04;
+	public static final int TYPE_COMPLETE_SERVICE_UUIDS_32_BIT = 0x05;
+	public static final int TYPE_INCOMPLETE_SERVICE_UUIDS_128_BIT = 0x06;
+	public static final int TYPE_COMPLETE_SERVICE_UUIDS_128_BIT = 0x07;
+	public static final int TYPE_SHORTENED_LOCAL_NAME = 0x08;
+	public static final int TYPE_COMPLETE_LOCAL_NAME = 0x09;
+	public static final int TYPE_TX_POWER_LEVEL = 0x0A;
+	public static final int TYPE_SERVICE_DATA_16_BIT = 0x16;
+	public static final int TYPE_SERVICE_DATA_32_BIT = 0x20;
+	public static final int TYPE_SERVICE_DATA_128_BIT = 0x21;
+	public static final int TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+	// most and least significant bits of the Bluetooth base UUID 00000000-0000-1000-8000-00805f9b34fb
+	private static final long BASE_UUID_MSB = 0x0000000000001000L;
+	private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	public static final int NO_FLAGS = -1;
+	public static final int NO_TX_POWER_LEVEL = Integer.MIN_VALUE;
+
+	private int flags = NO_FLAGS;
+	private int txPowerLevel = NO_TX_POWER_LEVEL;
+	private String localName;
+	private List<UUID> serviceUUIDs = Collections.emptyList();
+	// key is the company identifier, value is the data after it
+	private Map<Integer, byte[]> manufacturerData = Collections.emptyMap();
+	private Map<UUID, byte[]> serviceData = Collections.emptyMap();
+
+	private AdvertisingData() {
+	}
+
+	// a malformed structure stops the parsing, what was read before it is kept
+	public static AdvertisingData parse(byte[] scanRecord) {
+		AdvertisingData data = new AdvertisingData();
+		if (scanRecord == null) {
+			return data;
+		}
+
+		int index = 0;
+		while (index < scanRecord.length) {
+			int length = scanRecord[index] & 0xFF;
+			// a zero length marks the padding at the end of the record
+			if (length == 0 || index + length >= scanRecord.length) {
+				break;
+			}
+			int type = scanRecord[index + 1] & 0xFF;
+			int start = index + 2;
+			int dataLength = length - 1;
+
+			switch (type) {
+				case TYPE_FLAGS:
+					if (dataLength > 0) {
+						data.flags = scanRecord[start] & 0xFF;
+					}
+					break;
+				case TYPE_INCOMPLETE_SERVICE_UUIDS_16_BIT:
+				case TYPE_COMPLETE_SERVICE_UUIDS_16_BIT:
+					data.parseServiceUUIDs(scanRecord, start, dataLength, 2);
+					break;
+				case TYPE_INCOMPLETE_SERVICE_UUIDS_32_BIT:
+				case TYPE_COMPLETE_SERVICE_UUIDS_32_BIT:
+					data.parseServiceUUIDs(scanRecord, start, dataLength, 4);
+					break;
+				case TYPE_INCOMPLETE_SERVICE_UUIDS_128_BIT:
+				case TYPE_COMPLETE_SERVICE_UUIDS_128_BIT:
+					data.parseServiceUUIDs(scanRecord, start, dataLength, 16);
+					break;
+				case TYPE_SHORTENED_LOCAL_NAME:
+				case TYPE_COMPLETE_LOCAL_NAME:
+					// the complete name wins over the shortened one
+					if (data.localName == null || type == TYPE_COMPLETE_LOCAL_NAME) {
+						data.localName = new String(scanRecord, start, dataLength, UTF_8);
+					}
+					break;
+				case TYPE_TX_POWER_LEVEL:
+					if (dataLength > 0) {
+						data.txPowerLevel = scanRecord[start];
+					}
+					break;
+				case TYPE_SERVICE_DATA_16_BIT:
+					data.parseServiceData(scanRecord, start, dataLength, 2);
+					break;
+				case TYPE_SERVICE_DATA_32_BIT:
+					data.parseServiceData(scanRecord, start, dataLength, 4);
+					break;
+				case TYPE_SERVICE_DATA_128_BIT:
+					data.parseServiceData(scanRecord, start, dataLength, 16);
+					break;
+				case TYPE_MANUFACTURER_SPECIFIC_DATA:
+					if (dataLength >= 2) {
+						if (data.manufacturerData.isEmpty()) {
+							data.manufacturerData = new LinkedHashMap<>();
+						}
+						int companyId = (scanRecord[start] & 0xFF) | ((scanRecord[start + 1] & 0xFF) << 8);
+						data.manufacturerData.put(companyId, copy(scanRecord, start + 2, dataLength - 2));
+					}
+					break;
+			}
+			index += length + 1;
+		}
+		return data;
+	}
+
+	private void parseServiceUUIDs(byte[] scanRecord, int start, int length, int uuidLength) {
+		if (serviceUUIDs.isEmpty()) {
+			serviceUUIDs = new ArrayList<>(length / uuidLength);
+		}
+		for (int offset = start; offset + uuidLength <= start + length; offset += uuidLength) {
+			serviceUUIDs.add(uuidFromBytes(scanRecord, offset, uuidLength));
+		}
+	}
+
+	private void parseServiceData(byte[] scanRecord, int start, int length, int uuidLength) {
+		if (length < uuidLength) {
+			return;
+		}
+		if (serviceData.isEmpty()) {
+			serviceData = new LinkedHashMap<>();
+		}
+		serviceData.put(uuidFromBytes(scanRecord, start, uuidLength), copy(scanRecord, start + uuidLength, length - uuidLength));
+	}
+
+	// the UUIDs are little endian, 16 and 32 bit ones are expanded with the base UUID
+	static UUID uuidFromBytes(byte[] bytes, int offset, int length) {
+		if (length == 16) {
+			long lsb = 0;
+			long msb = 0;
+			for (int i = 7; i >= 0; i--) {
+				lsb = (lsb << 8) | (bytes[offset + i] & 0xFF);
+			}
+			for (int i = 15; i >= 8; i--) {
+				msb = (msb << 8) | (bytes[offset + i] & 0xFF);
+			}
+			return new UUID(msb, lsb);
+		}
+
+		long value = 0;
+		for (int i = length - 1; i >= 0; i--) {
+			value = (value << 8) | (bytes[offset + i] & 0xFF);
+		}
+		return new UUID(BASE_UUID_MSB | (value << 32), BASE_UUID_LSB);
+	}
+
+	private static byte[] copy(byte[] bytes, int offset, int length) {
+		byte[] result = new byte[length];
+		System.arraycopy(bytes, offset, result, 0, length);
+		return result;
+	}
+
+	public int getFlags() {
+		return flags;
+	}
+
+	public int getTxPowerLevel() {
+		return txPowerLevel;
+	}
+
+	public boolean hasTxPowerLevel() {
+		return txPowerLevel != NO_TX_POWER_LEVEL;
+	}
+
+	public String getLocalName() {
+		return localName;
+	}
+
+	public List<UUID> getServiceUUIDs() {
+		return serviceUUIDs;
+	}
+
+	public Map<Integer, byte[]> getManufacturerData() {
+		return manufacturerData;
+	}
+
+	public Map<UUID, byte[]> getServiceData() {
+		return serviceData;
+	}
+}
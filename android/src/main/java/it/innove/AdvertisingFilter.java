@@ -0,0 +1,161 @@
+package it.innove;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Filter applied to every advertisement before the peripheral is stored or sent to JS.
+ * All the configured conditions must match, a condition that is not configured always matches.
+ */
+public class AdvertisingFilter {
+
+	private Set<String> addresses;
+	private int minRssi = Integer.MIN_VALUE;
+	private Set<UUID> serviceUUIDs;
+	private String namePrefix;
+	private Pattern namePattern;
+	private int manufacturerId = -1;
+	private byte[] manufacturerData;
+	private byte[] manufacturerDataMask;
+	private UUID serviceDataUUID;
+	private byte[] serviceDataPrefix;
+
+	// null when there is nothing to filter
+	public static AdvertisingFilter fromOptions(ReadableArray serviceUUIDs, ReadableMap options) {
+		AdvertisingFilter filter = new AdvertisingFilter();
+		boolean empty = true;
+
+		if (serviceUUIDs != null && serviceUUIDs.size() > 0) {
+			filter.serviceUUIDs = new HashSet<>();
+			for (int i = 0; i < serviceUUIDs.size(); i++) {
+				filter.serviceUUIDs.add(UUIDHelper.uuidFromString(serviceUUIDs.getString(i)));
+			}
+			empty = false;
+		}
+
+		if (options.hasKey("filter")) {
+			ReadableMap map = options.getMap("filter");
+			if (map.hasKey("addresses")) {
+				ReadableArray addresses = map.getArray("addresses");
+				filter.addresses = new HashSet<>();
+				for (int i = 0; i < addresses.size(); i++) {
+					filter.addresses.add(addresses.getString(i).toUpperCase());
+				}
+			}
+			if (map.hasKey("minRssi")) {
+				filter.minRssi = map.getInt("minRssi");
+			}
+			if (map.hasKey("namePrefix")) {
+				filter.namePrefix = map.getString("namePrefix");
+			}
+			if (map.hasKey("nameRegex")) {
+				filter.namePattern = Pattern.compile(map.getString("nameRegex"));
+			}
+			if (map.hasKey("manufacturerId")) {
+				filter.manufacturerId = map.getInt("manufacturerId");
+				if (map.hasKey("manufacturerData")) {
+					filter.manufacturerData = toBytes(map.getArray("manufacturerData"));
+				}
+				if (map.hasKey("manufacturerDataMask")) {
+					filter.manufacturerDataMask = toBytes(map.getArray("manufacturerDataMask"));
+				}
+			}
+			if (map.hasKey("serviceDataUUID")) {
+				filter.serviceDataUUID = UUIDHelper.uuidFromString(map.getString("serviceDataUUID"));
+				if (map.hasKey("serviceData")) {
+					filter.serviceDataPrefix = toBytes(map.getArray("serviceData"));
+				}
+			}
+			empty = false;
+		}
+
+		return empty ? null : filter;
+	}
+
+	// conditions that do not need the scan record, checked first
+	public boolean matches(String address, int rssi) {
+		if (rssi < minRssi) {
+			return false;
+		}
+		return addresses == null || addresses.contains(address);
+	}
+
+	public boolean matches(AdvertisingData data, String deviceName) {
+		if (serviceUUIDs != null && !hasAnyService(data)) {
+			return false;
+		}
+
+		if (namePrefix != null || namePattern != null) {
+			String name = data.getLocalName() != null ? data.getLocalName() : deviceName;
+			if (name == null) {
+				return false;
+			}
+			if (namePrefix != null && !name.startsWith(namePrefix)) {
+				return false;
+			}
+			if (namePattern != null && !namePattern.matcher(name).find()) {
+				return false;
+			}
+		}
+
+		if (manufacturerId >= 0) {
+			byte[] value = data.getManufacturerData().get(manufacturerId);
+			if (value == null || !matchesMasked(value, manufacturerData, manufacturerDataMask)) {
+				return false;
+			}
+		}
+
+		if (serviceDataUUID != null) {
+			byte[] value = data.getServiceData().get(serviceDataUUID);
+			if (value == null || !matchesMasked(value, serviceDataPrefix, null)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private boolean hasAnyService(AdvertisingData data) {
+		for (UUID uuid : data.getServiceUUIDs()) {
+			if (serviceUUIDs.contains(uuid)) {
+				return true;
+			}
+		}
+		for (UUID uuid : data.getServiceData().keySet()) {
+			if (serviceUUIDs.contains(uuid)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// the value must start with the expected bytes, only the bits set in the mask are compared
+	private static boolean matchesMasked(byte[] value, byte[] expected, byte[] mask) {
+		if (expected == null) {
+			return true;
+		}
+		if (value.length < expected.length) {
+			return false;
+		}
+		for (int i = 0; i < expected.length; i++) {
+			int bits = mask != null && i < mask.length ? mask[i] : 0xFF;
+			if ((value[i] & bits) != (expected[i] & bits)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] toBytes(ReadableArray array) {
+		byte[] bytes = new byte[array.size()];
+		for (int i = 0; i < array.size(); i++) {
+			bytes[i] = (byte) array.getInt(i);
+		}
+		return bytes;
+	}
+}
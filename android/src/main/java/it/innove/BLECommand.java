@@ -9,6 +9,11 @@ class BLECommand {
 	public static int REGISTER_NOTIFY = 10001;
 	public static int REMOVE_NOTIFY = 10002;
 	public static int READ_RSSI = 10003;
+	public static int RETRIEVE_SERVICES = 10004;
+	public static int REQUEST_MTU = 10005;
+	public static int SET_PREFERRED_PHY = 10006;
+	public static int READ_PHY = 10007;
+	public static int RELIABLE_WRITE = 10008;
 	// BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
 	// BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
 
@@ -19,6 +24,18 @@ class BLECommand {
 	private int type;
 	private Integer queueSleepTime;
 	private Integer maxByteSize;
+	private int lane = CommandQueue.LANE_NORMAL;
+	// parts of a write not sent yet when the command gave way to a more urgent one
+	private ChunkCursor remainingData;
+	// the requested MTU, or the transmitter PHY mask of a SET_PREFERRED_PHY
+	private int value;
+	// the receiver PHY mask and the coded PHY option of a SET_PREFERRED_PHY
+	private int rxPhy;
+	private int phyOptions;
+	// the executeBatch call of the command, null for the single operations
+	private BatchContext batch;
+	// the read value is sent to JS as a Base64 string instead of an array of bytes
+	private boolean base64;
 
 
 	public BLECommand(UUID serviceUUID, UUID characteristicUUID, Integer maxByteSize, Integer queueSleepTime, Callback callback, int type) {
@@ -67,4 +84,59 @@ class BLECommand {
 	public Integer getMaxByteSize() {
 		return maxByteSize;
 	}
+
+	public int getValue() {
+		return value;
+	}
+
+	public void setValue(int value) {
+		this.value = value;
+	}
+
+	public void setPreferredPhy(int txPhy, int rxPhy, int phyOptions) {
+		this.value = txPhy;
+		this.rxPhy = rxPhy;
+		this.phyOptions = phyOptions;
+	}
+
+	public int getRxPhy() {
+		return rxPhy;
+	}
+
+	public int getPhyOptions() {
+		return phyOptions;
+	}
+
+	public boolean isBase64() {
+		return base64;
+	}
+
+	public void setBase64(boolean base64) {
+		this.base64 = base64;
+	}
+
+	public int getLane() {
+		return lane;
+	}
+
+	public void setLane(int lane) {
+		this.lane = lane;
+	}
+
+	public void setBatch(BatchContext batch) {
+		this.batch = batch;
+	}
+
+	// true if the batch of the command was stopped by an error
+	public boolean isCancelled() {
+		return batch != null && batch.isStopped();
+	}
+
+	public ChunkCursor getRemainingData() {
+		return remainingData;
+	}
+
+	public void setRemainingData(ChunkCursor remainingData) {
+		this.remainingData = remainingData;
+	}
 }
@@ -0,0 +1,98 @@
+package it.innove;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * The operations of one executeBatch call, the results are sent to JS with a single callback when the last
+ * operation is done. With stopOnError the operations after the first error are cancelled.
+ * Only used on the BLE thread.
+ */
+class BatchContext {
+
+	private final Callback callback;
+	private final boolean stopOnError;
+	private final String[] errors;
+	private final Object[] values;
+	private final boolean[] done;
+	private int remaining;
+	private boolean stopped = false;
+
+	BatchContext(int size, boolean stopOnError, Callback callback) {
+		this.callback = callback;
+		this.stopOnError = stopOnError;
+		errors = new String[size];
+		values = new Object[size];
+		done = new boolean[size];
+		remaining = size;
+	}
+
+	// the callback given to the command of the operation at this index
+	Callback callbackFor(final int index) {
+		return new Callback() {
+			@Override
+			public void invoke(Object... args) {
+				complete(index, args);
+			}
+		};
+	}
+
+	boolean isStopped() {
+		return stopped;
+	}
+
+	// null when the operation succeeded
+	String getError(int index) {
+		return errors[index];
+	}
+
+	Object getValue(int index) {
+		return values[index];
+	}
+
+	private void complete(int index, Object[] args) {
+		if (done[index]) {
+			return;
+		}
+		done[index] = true;
+		if (args.length > 0 && args[0] != null) {
+			errors[index] = args[0].toString();
+			if (stopOnError) {
+				stopped = true;
+			}
+		}
+		if (args.length > 1) {
+			values[index] = args[1];
+		}
+
+		remaining--;
+		if (remaining == 0) {
+			callback.invoke(null, results());
+		}
+	}
+
+	// one map per operation in the order of the batch, whatever order they completed in
+	WritableArray results() {
+		WritableArray results = Arguments.createArray();
+		for (int i = 0; i < done.length; i++) {
+			WritableMap result = Arguments.createMap();
+			if (errors[i] == null) {
+				result.putString("status", "success");
+			} else if (ErrorTypes.CANCELLED.equals(errors[i])) {
+				result.putString("status", "cancelled");
+			} else {
+				result.putString("status", "error");
+				result.putString("error", errors[i]);
+			}
+			if (values[i] instanceof WritableArray) {
+				result.putArray("value", (WritableArray) values[i]);
+			} else if (values[i] instanceof String) {
+				result.putString("value", (String) values[i]);
+			}
+			results.pushMap(result);
+		}
+		return results;
+	}
+}
@@ -22,7 +22,7 @@ import java.util.*;
 
 import static android.app.Activity.RESULT_OK;
 import static android.os.Build.VERSION_CODES.LOLLIPOP;
-import static com.facebook.react.bridge.UiThreadUtil.runOnUiThread;
+import static it.innove.BleThreadUtil.runOnBleThread;
 
 
 class BleManager extends ReactContextBaseJavaModule implements ActivityEventListener {
@@ -47,9 +47,15 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 	private ScanManager scanManager;
 	private BondRequest bondRequest;
 
-	// key is the MAC Address
-	public Map<String, Peripheral> peripherals = new LinkedHashMap<>();
-	// scan session id
+	public PeripheralRegistry peripherals = new PeripheralRegistry();
+	// deadline of each GATT operation in milliseconds, 0 waits forever
+	private int commandTimeout = CommandQueue.DEFAULT_TIMEOUT;
+	// automatic connection priority of the peripherals, null when disabled
+	private ConnectionPriorityPolicy priorityPolicy;
+	// the read and notified values are sent to JS as Base64 strings instead of arrays of bytes
+	private boolean base64Encoding = false;
+	// file transfers running or paused by transfer id, only used on the BLE thread
+	private final Map<String, FileTransfer> transfers = new HashMap<>();
 
 
 	public BleManager(ReactApplicationContext reactContext) {
@@ -92,6 +98,24 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 		if (options.hasKey("forceLegacy")) {
 			forceLegacy = options.getBoolean("forceLegacy");
 		}
+		if (options.hasKey("maxPeripherals")) {
+			peripherals.setMaxSize(options.getInt("maxPeripherals"));
+		}
+		if (options.hasKey("peripheralTTL")) {
+			peripherals.setTtl(options.getInt("peripheralTTL"));
+		}
+		if (options.hasKey("commandTimeout")) {
+			commandTimeout = options.getInt("commandTimeout");
+		}
+		try {
+			priorityPolicy = ConnectionPriorityPolicy.fromOptions(options);
+		} catch (IllegalArgumentException e) {
+			callback.invoke("Invalid connectionPriorityPolicy: " + e.getMessage());
+			return;
+		}
+		if (options.hasKey("encoding")) {
+			base64Encoding = "base64".equals(options.getString("encoding"));
+		}
 
 		if (Build.VERSION.SDK_INT >= LOLLIPOP && !forceLegacy) {
 			scanManager = new LollipopScanManager(reactContext, this);
@@ -125,7 +149,7 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 	}
 
 	@ReactMethod
-	public void scan(ReadableArray serviceUUIDs, final int scanSeconds, boolean allowDuplicates, ReadableMap options, Callback callback) {
+	public void scan(final ReadableArray serviceUUIDs, final int scanSeconds, final boolean allowDuplicates, final ReadableMap options, final Callback callback) {
 		Log.d(LOG_TAG, "scan");
 		if (getBluetoothAdapter() == null) {
 			Log.d(LOG_TAG, "No bluetooth support");
@@ -135,18 +159,17 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 		if (!getBluetoothAdapter().isEnabled())
 			return;
 
-		for (Iterator<Map.Entry<String, Peripheral>> iterator = peripherals.entrySet().iterator(); iterator.hasNext(); ) {
-			Map.Entry<String, Peripheral> entry = iterator.next();
-			if (!entry.getValue().isConnected()) {
-				iterator.remove();
+		runOnBleThread(new Runnable() {
+			@Override
+			public void run() {
+				peripherals.removeDisconnected();
+				scanManager.scan(serviceUUIDs, scanSeconds, allowDuplicates, options, callback);
 			}
-		}
-
-		scanManager.scan(serviceUUIDs, scanSeconds, options, callback);
+		});
 	}
 
 	@ReactMethod
-	public void stopScan(Callback callback) {
+	public void stopScan(final Callback callback) {
 		Log.d(LOG_TAG, "Stop scan");
 		if (getBluetoothAdapter() == null) {
 			Log.d(LOG_TAG, "No bluetooth support");
@@ -157,13 +180,26 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 			callback.invoke("Bluetooth not enabled");
 			return;
 		}
-		scanManager.stopScan(callback);
+		runOnBleThread(new Runnable() {
+			@Override
+			public void run() {
+				scanManager.stopScan(callback);
+			}
+		});
 	}
 
 	@ReactMethod
-	public void createBond(String peripheralUUID, Callback callback) {
+	public void createBond(final String peripheralUUID, final Callback callback) {
 		Log.d(LOG_TAG, "Request bond to: " + peripheralUUID);
+		runOnBleThread(new Runnable() {
+			@Override
+			public void run() {
+				doCreateBond(peripheralUUID, callback);
+			}
+		});
+	}
 
+	private void doCreateBond(String peripheralUUID, Callback callback) {
 		Set<BluetoothDevice> deviceSet = getBluetoothAdapter().getBondedDevices();
 		for (BluetoothDevice device : deviceSet) {
 			if (peripheralUUID.equalsIgnoreCase(device.getAddress())) {
@@ -186,15 +222,20 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 	}
 
 	@ReactMethod
-	public void connect(String peripheralUUID, Callback callback) {
+	public void connect(final String peripheralUUID, final Callback callback) {
 		Log.d(LOG_TAG, "Connect to: " + peripheralUUID);
 
-		Peripheral peripheral = retrieveOrCreatePeripheral(peripheralUUID);
-		if (peripheral == null) {
-			callback.invoke("Invalid peripheral uuid");
-			return;
-		}
-		peripheral.connect(callback, getCurrentActivity());
+		runOnBleThread(new Runnable() {
+			@Override
+			public void run() {
+				Peripheral peripheral = retrieveOrCreatePeripheral(peripheralUUID);
+				if (peripheral == null) {
+					callback.invoke("Invalid peripheral uuid");
+					return;
+				}
+				peripheral.connect(callback, getCurrentActivity());
+			}
+		});
 	}
 
 	@ReactMethod
@@ -210,16 +251,25 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 	}
 
 	@ReactMethod
-	public void startNotification(String deviceUUID, String serviceUUID, String characteristicUUID, Callback callback) {
+	public void startNotification(String deviceUUID, String serviceUUID, String characteristicUUID, ReadableMap options, Callback callback) {
 		Log.d(LOG_TAG, "startNotification");
 
 		Peripheral peripheral = peripherals.get(deviceUUID);
 		if (peripheral != null) {
-			peripheral.queueRegisterNotifyCallback(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), callback);
+			peripheral.queueRegisterNotifyCallback(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), options, callback);
 		} else
 			callback.invoke("Peripheral not found");
 	}
 
+	@ReactMethod
+	public void drainNotifications(String deviceUUID, String serviceUUID, String characteristicUUID, int max, Callback callback) {
+		Peripheral peripheral = peripherals.get(deviceUUID);
+		if (peripheral != null) {
+			peripheral.drainNotifications(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), max, callback);
+		} else
+			callback.invoke("Peripheral not found", null);
+	}
+
 	@ReactMethod
 	public void stopNotification(String deviceUUID, String serviceUUID, String characteristicUUID, Callback callback) {
 		Log.d(LOG_TAG, "stopNotification");
@@ -233,7 +283,7 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 
 
 	@ReactMethod
-	public void write(String deviceUUID, String serviceUUID, String characteristicUUID, ReadableArray message, Integer maxByteSize, Callback callback) {
+	public void write(String deviceUUID, String serviceUUID, String characteristicUUID, ReadableArray message, int maxByteSize, String priority, Callback callback) {
 		Log.d(LOG_TAG, "Write to: " + deviceUUID);
 
 		Peripheral peripheral = peripherals.get(deviceUUID);
@@ -243,13 +293,117 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 				decoded[i] = new Integer(message.getInt(i)).byteValue();
 			}
 			Log.d(LOG_TAG, "Message(" + decoded.length + "): " + bytesToHex(decoded));
-			peripheral.queueWrite(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), decoded, maxByteSize, null, callback, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+			peripheral.queueWrite(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), decoded, packetSize(maxByteSize), null, callback, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, CommandQueue.laneOf(priority));
 		} else
 			callback.invoke("Peripheral not found");
 	}
 
 	@ReactMethod
-	public void writeWithoutResponse(String deviceUUID, String serviceUUID, String characteristicUUID, ReadableArray message, Integer maxByteSize, Integer queueSleepTime, Callback callback) {
+	public void writeReliable(String deviceUUID, String serviceUUID, String characteristicUUID, ReadableArray message, int maxByteSize, String priority, Callback callback) {
+		Log.d(LOG_TAG, "Reliable write to: " + deviceUUID);
+
+		Peripheral peripheral = peripherals.get(deviceUUID);
+		if (peripheral != null) {
+			byte[] decoded = new byte[message.size()];
+			for (int i = 0; i < message.size(); i++) {
+				decoded[i] = new Integer(message.getInt(i)).byteValue();
+			}
+			Log.d(LOG_TAG, "Message(" + decoded.length + "): " + bytesToHex(decoded));
+			peripheral.queueReliableWrite(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), decoded, packetSize(maxByteSize), callback, CommandQueue.laneOf(priority));
+		} else
+			callback.invoke("Peripheral not found");
+	}
+
+	@ReactMethod
+	public void writeFile(String deviceUUID, final String serviceUUID, final String characteristicUUID, final String path, final ReadableMap options, final Callback callback) {
+		Log.d(LOG_TAG, "Write file " + path + " to: " + deviceUUID);
+
+		final Peripheral peripheral = peripherals.get(deviceUUID);
+		if (peripheral == null) {
+			callback.invoke("Peripheral not found", null);
+			return;
+		}
+		for (String key : new String[]{"maxByteSize", "windowSize"}) {
+			if (options.hasKey(key) && options.getInt(key) <= 0) {
+				callback.invoke(key + " must be greater than 0", null);
+				return;
+			}
+		}
+		if (options.hasKey("offset") && options.getInt("offset") < 0) {
+			callback.invoke("offset must not be negative", null);
+			return;
+		}
+		final String transferId = options.hasKey("transferId") ? options.getString("transferId") : path;
+		runOnBleThread(new Runnable() {
+			@Override
+			public void run() {
+				if (transfers.containsKey(transferId)) {
+					callback.invoke("Transfer " + transferId + " is already running", null);
+					return;
+				}
+
+				FileTransfer transfer = new FileTransfer(transferId, peripheral, BleManager.this, context, path,
+						UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID),
+						options, new Callback() {
+					@Override
+					public void invoke(Object... args) {
+						transfers.remove(transferId);
+						callback.invoke(args);
+					}
+				});
+				transfers.put(transferId, transfer);
+				transfer.start();
+			}
+		});
+	}
+
+	@ReactMethod
+	public void pauseTransfer(final String transferId, final Callback callback) {
+		runOnBleThread(new Runnable() {
+			@Override
+			public void run() {
+				FileTransfer transfer = transfers.get(transferId);
+				if (transfer != null) {
+					transfer.pause();
+					callback.invoke();
+				} else
+					callback.invoke("Transfer not found");
+			}
+		});
+	}
+
+	@ReactMethod
+	public void resumeTransfer(final String transferId, final Callback callback) {
+		runOnBleThread(new Runnable() {
+			@Override
+			public void run() {
+				FileTransfer transfer = transfers.get(transferId);
+				if (transfer != null) {
+					transfer.resume();
+					callback.invoke();
+				} else
+					callback.invoke("Transfer not found");
+			}
+		});
+	}
+
+	@ReactMethod
+	public void cancelTransfer(final String transferId, final Callback callback) {
+		runOnBleThread(new Runnable() {
+			@Override
+			public void run() {
+				FileTransfer transfer = transfers.get(transferId);
+				if (transfer != null) {
+					transfer.cancel();
+					callback.invoke();
+				} else
+					callback.invoke("Transfer not found");
+			}
+		});
+	}
+
+	@ReactMethod
+	public void writeWithoutResponse(String deviceUUID, String serviceUUID, String characteristicUUID, ReadableArray message, int maxByteSize, int queueSleepTime, String priority, Callback callback) {
 		Log.d(LOG_TAG, "Write without response to: " + deviceUUID);
 
 		Peripheral peripheral = peripherals.get(deviceUUID);
@@ -259,21 +413,187 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 				decoded[i] = new Integer(message.getInt(i)).byteValue();
 			}
 			Log.d(LOG_TAG, "Message(" + decoded.length + "): " + bytesToHex(decoded));
-			peripheral.queueWrite(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), decoded, maxByteSize, queueSleepTime, callback, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+			peripheral.queueWrite(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), decoded, packetSize(maxByteSize), queueSleepTime, callback, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, CommandQueue.laneOf(priority));
 		} else
 			callback.invoke("Peripheral not found");
 	}
 
+	// null when JS sends 0 or less, the packets then fill the MTU
+	private static Integer packetSize(int maxByteSize) {
+		return maxByteSize > 0 ? maxByteSize : null;
+	}
+
+	// the encoding of a read value, the one of the start options when it is missing
+	private boolean isBase64(String encoding) {
+		return encoding != null ? "base64".equals(encoding) : base64Encoding;
+	}
+
+	// null if the data is not valid Base64, the callback gets the error
+	private static byte[] decodeBase64(String message, Callback callback) {
+		try {
+			return Base64.decode(message, Base64.DEFAULT);
+		} catch (IllegalArgumentException e) {
+			callback.invoke("Invalid Base64 data");
+			return null;
+		}
+	}
+
 	@ReactMethod
-	public void read(String deviceUUID, String serviceUUID, String characteristicUUID, Callback callback) {
+	public void writeBase64(String deviceUUID, String serviceUUID, String characteristicUUID, String message, int maxByteSize, String priority, Callback callback) {
+		Log.d(LOG_TAG, "Write Base64 to: " + deviceUUID);
+
+		Peripheral peripheral = peripherals.get(deviceUUID);
+		if (peripheral != null) {
+			byte[] decoded = decodeBase64(message, callback);
+			if (decoded != null) {
+				peripheral.queueWrite(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), decoded, packetSize(maxByteSize), null, callback, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, CommandQueue.laneOf(priority));
+			}
+		} else
+			callback.invoke("Peripheral not found");
+	}
+
+	@ReactMethod
+	public void writeWithoutResponseBase64(String deviceUUID, String serviceUUID, String characteristicUUID, String message, int maxByteSize, int queueSleepTime, String priority, Callback callback) {
+		Log.d(LOG_TAG, "Write Base64 without response to: " + deviceUUID);
+
+		Peripheral peripheral = peripherals.get(deviceUUID);
+		if (peripheral != null) {
+			byte[] decoded = decodeBase64(message, callback);
+			if (decoded != null) {
+				peripheral.queueWrite(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), decoded, packetSize(maxByteSize), queueSleepTime, callback, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, CommandQueue.laneOf(priority));
+			}
+		} else
+			callback.invoke("Peripheral not found");
+	}
+
+	@ReactMethod
+	public void read(String deviceUUID, String serviceUUID, String characteristicUUID, String priority, String encoding, Callback callback) {
 		Log.d(LOG_TAG, "Read from: " + deviceUUID);
 		Peripheral peripheral = peripherals.get(deviceUUID);
 		if (peripheral != null) {
-			peripheral.queueRead(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), callback);
+			peripheral.queueRead(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), callback, CommandQueue.laneOf(priority), isBase64(encoding));
 		} else
 			callback.invoke("Peripheral not found", null);
 	}
 
+	@ReactMethod
+	public void executeBatch(String deviceUUID, ReadableArray operations, ReadableMap options, Callback callback) {
+		Log.d(LOG_TAG, "Execute batch of " + operations.size() + " operations on: " + deviceUUID);
+		Peripheral peripheral = peripherals.get(deviceUUID);
+		if (peripheral == null) {
+			callback.invoke("Peripheral not found", null);
+			return;
+		}
+		if (operations.size() == 0) {
+			callback.invoke(null, Arguments.createArray());
+			return;
+		}
+
+		boolean stopOnError = options.hasKey("stopOnError") && options.getBoolean("stopOnError");
+		int lane = CommandQueue.laneOf(options.hasKey("priority") ? options.getString("priority") : null);
+		boolean base64 = isBase64(options.hasKey("encoding") ? options.getString("encoding") : null);
+		BatchContext batch = new BatchContext(operations.size(), stopOnError, callback);
+		List<BLECommand> commands = new ArrayList<>();
+
+		for (int i = 0; i < operations.size(); i++) {
+			ReadableMap operation = operations.getMap(i);
+			String error = checkOperation(operation);
+			if (error != null) {
+				callback.invoke("Invalid operation " + i + ": " + error, null);
+				return;
+			}
+			String type = operation.getString("type");
+			byte[] data = null;
+			Integer maxByteSize = null;
+			Integer queueSleepTime = null;
+			int commandType;
+
+			if ("read".equals(type)) {
+				commandType = BLECommand.READ;
+			} else if ("write".equals(type) || "writeWithoutResponse".equals(type) || "writeReliable".equals(type)) {
+				if (operation.getType("data") == ReadableType.String) {
+					try {
+						data = Base64.decode(operation.getString("data"), Base64.DEFAULT);
+					} catch (IllegalArgumentException e) {
+						callback.invoke("Invalid Base64 data in operation " + i, null);
+						return;
+					}
+				} else {
+					ReadableArray message = operation.getArray("data");
+					data = new byte[message.size()];
+					for (int j = 0; j < message.size(); j++) {
+						data[j] = (byte) message.getInt(j);
+					}
+				}
+				// without maxByteSize the packets fill the MTU
+				maxByteSize = operation.hasKey("maxByteSize") ? operation.getInt("maxByteSize") : null;
+				if ("write".equals(type)) {
+					commandType = BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+				} else if ("writeReliable".equals(type)) {
+					commandType = BLECommand.RELIABLE_WRITE;
+				} else {
+					commandType = BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+					queueSleepTime = operation.hasKey("queueSleepTime") ? operation.getInt("queueSleepTime") : 10;
+				}
+			} else if ("startNotification".equals(type)) {
+				commandType = BLECommand.REGISTER_NOTIFY;
+			} else if ("stopNotification".equals(type)) {
+				commandType = BLECommand.REMOVE_NOTIFY;
+			} else {
+				callback.invoke("Unknown operation type: " + type, null);
+				return;
+			}
+
+			UUID serviceUUID;
+			UUID characteristicUUID;
+			try {
+				serviceUUID = UUIDHelper.uuidFromString(operation.getString("service"));
+				characteristicUUID = UUIDHelper.uuidFromString(operation.getString("characteristic"));
+			} catch (IllegalArgumentException e) {
+				callback.invoke("Invalid UUID in operation " + i, null);
+				return;
+			}
+			BLECommand command = new BLECommand(serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime,
+					batch.callbackFor(i), commandType);
+			command.setLane(lane);
+			command.setBatch(batch);
+			command.setBase64(base64);
+			commands.add(command);
+		}
+		peripheral.queueCommands(commands);
+	}
+
+	// why an operation of a batch cannot be queued, null when it is valid
+	private static String checkOperation(ReadableMap operation) {
+		for (String key : new String[]{"type", "service", "characteristic"}) {
+			if (!operation.hasKey(key) || operation.getType(key) != ReadableType.String) {
+				return "missing " + key;
+			}
+		}
+		String type = operation.getString("type");
+		if (!"write".equals(type) && !"writeWithoutResponse".equals(type) && !"writeReliable".equals(type)) {
+			return null;
+		}
+
+		if (!operation.hasKey("data") || operation.isNull("data")) {
+			return "missing data";
+		}
+		if (operation.getType("data") == ReadableType.Array) {
+			ReadableArray data = operation.getArray("data");
+			for (int j = 0; j < data.size(); j++) {
+				if (data.getType(j) != ReadableType.Number) {
+					return "data is not an array of bytes";
+				}
+			}
+		} else if (operation.getType("data") != ReadableType.String) {
+			return "data is not an array of bytes or a Base64 string";
+		}
+		if (operation.hasKey("maxByteSize") && operation.getInt("maxByteSize") <= 0) {
+			return "maxByteSize must be greater than 0";
+		}
+		return null;
+	}
+
 	@ReactMethod
 	public void retrieveServices(String deviceUUID, Callback callback) {
 		Log.d(LOG_TAG, "Retrieve services from: " + deviceUUID);
@@ -286,44 +606,58 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 
 
 	@ReactMethod
-	public void readRSSI(String deviceUUID, Callback callback) {
-		Log.d(LOG_TAG, "Read RSSI from: " + deviceUUID);
+	public void requestMTU(String deviceUUID, int mtu, Callback callback) {
+		Log.d(LOG_TAG, "Request MTU of " + mtu + " to: " + deviceUUID);
 		Peripheral peripheral = peripherals.get(deviceUUID);
 		if (peripheral != null) {
-			peripheral.queueReadRSSI(callback);
+			peripheral.queueRequestMTU(mtu, callback);
 		} else
 			callback.invoke("Peripheral not found", null);
 	}
 
-	private BluetoothAdapter.LeScanCallback mLeScanCallback =
-			new BluetoothAdapter.LeScanCallback() {
-
-
-				@Override
-				public void onLeScan(final BluetoothDevice device, final int rssi,
-									 final byte[] scanRecord) {
-					runOnUiThread(new Runnable() {
-						@Override
-						public void run() {
-							Log.i(LOG_TAG, "DiscoverPeripheral: " + device.getName());
-							String address = device.getAddress();
-
-							if (!peripherals.containsKey(address)) {
-								Peripheral peripheral = new Peripheral(device, rssi, scanRecord, reactContext);
-								peripherals.put(device.getAddress(), peripheral);
-								WritableMap map = peripheral.asWritableMap();
-								sendEvent("BleManagerDiscoverPeripheral", map);
-							} else {
-								// this isn't necessary
-								Peripheral peripheral = peripherals.get(address);
-								peripheral.updateRssi(rssi);
-							}
-						}
-					});
-				}
+	@ReactMethod
+	public void setPreferredPhy(String deviceUUID, int txPhy, int rxPhy, int phyOptions, Callback callback) {
+		Log.d(LOG_TAG, "Set preferred PHY tx=" + txPhy + " rx=" + rxPhy + " to: " + deviceUUID);
+		Peripheral peripheral = peripherals.get(deviceUUID);
+		if (peripheral != null) {
+			peripheral.queueSetPreferredPhy(txPhy, rxPhy, phyOptions, callback);
+		} else
+			callback.invoke("Peripheral not found", null);
+	}
 
+	@ReactMethod
+	public void readPhy(String deviceUUID, Callback callback) {
+		Log.d(LOG_TAG, "Read PHY from: " + deviceUUID);
+		Peripheral peripheral = peripherals.get(deviceUUID);
+		if (peripheral != null) {
+			peripheral.queueReadPhy(callback);
+		} else
+			callback.invoke("Peripheral not found", null);
+	}
+
+	@ReactMethod
+	public void requestConnectionPriority(String deviceUUID, int priority, Callback callback) {
+		Log.d(LOG_TAG, "Request connection priority " + priority + " to: " + deviceUUID);
+		if (!ConnectionPriorityPolicy.isValid(priority)) {
+			callback.invoke("Invalid connection priority: " + priority);
+			return;
+		}
+		Peripheral peripheral = peripherals.get(deviceUUID);
+		if (peripheral != null) {
+			peripheral.requestConnectionPriority(priority, callback);
+		} else
+			callback.invoke("Peripheral not found");
+	}
 
-			};
+	@ReactMethod
+	public void readRSSI(String deviceUUID, Callback callback) {
+		Log.d(LOG_TAG, "Read RSSI from: " + deviceUUID);
+		Peripheral peripheral = peripherals.get(deviceUUID);
+		if (peripheral != null) {
+			peripheral.queueReadRSSI(callback);
+		} else
+			callback.invoke("Peripheral not found", null);
+	}
 
 	@ReactMethod
 	public void checkState() {
@@ -412,10 +746,9 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 	@ReactMethod
 	public void getDiscoveredPeripherals(Callback callback) {
 		Log.d(LOG_TAG, "Get discovered peripherals");
+		peripherals.removeExpired();
 		WritableArray map = Arguments.createArray();
-		Map<String, Peripheral> peripheralsCopy = new LinkedHashMap<>(peripherals);
-		for (Map.Entry<String, Peripheral> entry : peripheralsCopy.entrySet()) {
-			Peripheral peripheral = entry.getValue();
+		for (Peripheral peripheral : peripherals.values()) {
 			WritableMap jsonBundle = peripheral.asWritableMap();
 			map.pushMap(jsonBundle);
 		}
@@ -426,9 +759,7 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 	public void getConnectedPeripherals(ReadableArray serviceUUIDs, Callback callback) {
 		Log.d(LOG_TAG, "Get connected peripherals");
 		WritableArray map = Arguments.createArray();
-		Map<String, Peripheral> peripheralsCopy = new LinkedHashMap<>(peripherals);
-		for (Map.Entry<String, Peripheral> entry : peripheralsCopy.entrySet()) {
-			Peripheral peripheral = entry.getValue();
+		for (Peripheral peripheral : peripherals.values()) {
 			Boolean accept = false;
 
 			if (serviceUUIDs != null && serviceUUIDs.size() > 0) {
@@ -494,6 +825,14 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 		return value;
 	}
 
+	// a new object on each call, a WritableArray can be sent to JS only once
+	static Object encodeValue(byte[] bytes, boolean base64) {
+		if (base64) {
+			return Base64.encodeToString(bytes, Base64.NO_WRAP);
+		}
+		return bytesToWritableArray(bytes);
+	}
+
 	@Override
 	public void onActivityResult(Activity activity, int requestCode, int resultCode, Intent data) {
 		Log.d(LOG_TAG, "onActivityResult");
@@ -512,6 +851,19 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 
 	}
 
+	// peripheral configured with the start options
+	public Peripheral createPeripheral(BluetoothDevice device, int rssi, byte[] scanRecord) {
+		Peripheral peripheral = new Peripheral(device, rssi, scanRecord, reactContext);
+		if (commandTimeout != CommandQueue.DEFAULT_TIMEOUT) {
+			peripheral.setCommandTimeout(commandTimeout);
+		}
+		if (priorityPolicy != null) {
+			peripheral.setConnectionPriorityPolicy(priorityPolicy);
+		}
+		peripheral.setBase64Notifications(base64Encoding);
+		return peripheral;
+	}
+
 	private Peripheral retrieveOrCreatePeripheral(String peripheralUUID) {
 		Peripheral peripheral = peripherals.get(peripheralUUID);
 		if (peripheral == null) {
@@ -520,7 +872,7 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 			}
 			if (BluetoothAdapter.checkBluetoothAddress(peripheralUUID)) {
 				BluetoothDevice device = bluetoothAdapter.getRemoteDevice(peripheralUUID);
-				peripheral = new Peripheral(device, reactContext);
+				peripheral = createPeripheral(device, 0, null);
 				peripherals.put(peripheralUUID, peripheral);
 			}
 		}
@@ -0,0 +1,46 @@
+package it.innove;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Owns the looper where the scan results, the GATT callbacks and the peripheral command queues are processed,
+ * so the UI thread is never used by the BLE work.
+ */
+public class BleThreadUtil {
+
+	private static Handler bleHandler;
+	private static Scheduler bleScheduler;
+	private static ExecutorService ioExecutor;
+
+	public static synchronized Handler getBleHandler() {
+		if (bleHandler == null) {
+			HandlerThread thread = new HandlerThread("BleManager");
+			thread.start();
+			bleHandler = new Handler(thread.getLooper());
+		}
+		return bleHandler;
+	}
+
+	static synchronized Scheduler getBleScheduler() {
+		if (bleScheduler == null) {
+			bleScheduler = new HandlerScheduler(getBleHandler());
+		}
+		return bleScheduler;
+	}
+
+	// the file reads, kept off the BLE looper so they never delay a GATT callback, one thread keeps them in order
+	static synchronized ExecutorService getIoExecutor() {
+		if (ioExecutor == null) {
+			ioExecutor = Executors.newSingleThreadExecutor();
+		}
+		return ioExecutor;
+	}
+
+	public static void runOnBleThread(Runnable runnable) {
+		getBleHandler().post(runnable);
+	}
+}
@@ -0,0 +1,48 @@
+package it.innove;
+
+/**
+ * Walks a payload chunk by chunk without splitting it up front. Each chunk is copied into a buffer reused for the
+ * whole transfer, so a transfer allocates at most two buffers (full chunks and the shorter last one) whatever its
+ * size. The buffer can be reused as soon as writeCharacteristic returns because the value is copied into the
+ * binder call.
+ */
+class ChunkCursor {
+
+	private final byte[] data;
+	private final int chunkSize;
+	private int offset = 0;
+	private byte[] buffer;
+	private byte[] lastBuffer;
+
+	ChunkCursor(byte[] data, int chunkSize) {
+		this.data = data;
+		this.chunkSize = chunkSize;
+	}
+
+	boolean hasNext() {
+		return offset < data.length;
+	}
+
+	// the chunk at the cursor, the returned array is overwritten by the next call
+	byte[] current() {
+		int length = Math.min(chunkSize, data.length - offset);
+		byte[] target;
+		if (length == chunkSize) {
+			if (buffer == null) {
+				buffer = new byte[chunkSize];
+			}
+			target = buffer;
+		} else {
+			if (lastBuffer == null || lastBuffer.length != length) {
+				lastBuffer = new byte[length];
+			}
+			target = lastBuffer;
+		}
+		System.arraycopy(data, offset, target, 0, length);
+		return target;
+	}
+
+	void advance() {
+		offset += Math.min(chunkSize, data.length - offset);
+	}
+}
@@ -0,0 +1,63 @@
+package it.innove;
+
+import com.facebook.react.bridge.Callback;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The callbacks of the reads merged in a single GATT read, all of them get the same result.
+ * Only used on the BLE thread.
+ */
+class CoalescedCallback implements Callback {
+
+	private final List<Callback> callbacks = new ArrayList<>();
+	private boolean invoked = false;
+
+	CoalescedCallback(Callback callback) {
+		callbacks.add(callback);
+	}
+
+	// false if the result was already sent, a new read is needed in that case
+	boolean add(Callback callback) {
+		if (invoked) {
+			return false;
+		}
+		callbacks.add(callback);
+		return true;
+	}
+
+	// the value read, each callback gets its own array since a WritableArray can be sent to JS only once
+	void invokeValue(byte[] value, boolean base64) {
+		if (!start()) {
+			return;
+		}
+		for (Callback callback : callbacks) {
+			callback.invoke(null, BleManager.encodeValue(value, base64));
+		}
+	}
+
+	// an error, the arguments are shared by all the callbacks so they must not hold a WritableArray
+	@Override
+	public void invoke(Object... args) {
+		if (!start()) {
+			return;
+		}
+		for (Callback callback : callbacks) {
+			callback.invoke(args);
+		}
+	}
+
+	// called once, before the first callback is invoked
+	protected void onInvoked() {
+	}
+
+	private boolean start() {
+		if (invoked) {
+			return false;
+		}
+		invoked = true;
+		onInvoked();
+		return true;
+	}
+}
@@ -0,0 +1,213 @@
+package it.innove;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The GATT operations of a peripheral, executed one at a time on the BLE thread.
+ * The queue is IDLE until a command is started, then RUNNING until the command completes or its deadline expires,
+ * so a GATT callback that never arrives fails only that command and the next one is started.
+ * Android is only reached through the Scheduler and the Executor, so the queue can be driven by a fake GATT.
+ * The commands wait in three lanes, the interactive lane is served first and the bulk lane last, but a lane
+ * passed over MAX_PASSED times in a row is served next so it never starves.
+ */
+class CommandQueue {
+
+	public static final int DEFAULT_TIMEOUT = 10000;
+
+	public static final int LANE_INTERACTIVE = 0;
+	public static final int LANE_NORMAL = 1;
+	public static final int LANE_BULK = 2;
+	private static final int MAX_PASSED = 4;
+
+	enum State {
+		IDLE,
+		RUNNING
+	}
+
+	interface Executor {
+		// start the command, false if it is already finished and no GATT callback is expected
+		boolean execute(BLECommand command);
+
+		// the command did not complete before its deadline
+		void timeout(BLECommand command);
+	}
+
+	private final Scheduler scheduler;
+	private final Executor executor;
+	private final List<ArrayDeque<BLECommand>> lanes = new ArrayList<>();
+	// commands started from the other lanes while a command was waiting in this lane
+	private final int[] passed = new int[3];
+	private State state = State.IDLE;
+	private BLECommand current;
+	private int timeout = DEFAULT_TIMEOUT;
+	private final Runnable watchdog = new Runnable() {
+		@Override
+		public void run() {
+			onDeadline();
+		}
+	};
+
+	CommandQueue(Scheduler scheduler, Executor executor) {
+		this.scheduler = scheduler;
+		this.executor = executor;
+		for (int lane = LANE_INTERACTIVE; lane <= LANE_BULK; lane++) {
+			lanes.add(new ArrayDeque<BLECommand>());
+		}
+	}
+
+	// the lane of a priority given by JS, normal when the priority is missing or unknown
+	static int laneOf(String priority) {
+		if ("interactive".equals(priority)) {
+			return LANE_INTERACTIVE;
+		} else if ("bulk".equals(priority)) {
+			return LANE_BULK;
+		}
+		return LANE_NORMAL;
+	}
+
+	// 0 disables the deadline
+	void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	State getState() {
+		return state;
+	}
+
+	// the running command, null when the queue is idle
+	BLECommand getCurrent() {
+		return current;
+	}
+
+	// true if a GATT callback of this type is expected by the running command, a late callback of a command
+	// that timed out must not complete the one running now, a null characteristic matches any characteristic
+	boolean isRunning(int type, UUID characteristicUUID) {
+		if (current == null || current.getType() != type) {
+			return false;
+		}
+		return characteristicUUID == null || characteristicUUID.equals(current.getCharacteristicUUID());
+	}
+
+	void add(BLECommand command) {
+		lanes.get(command.getLane()).addLast(command);
+		startNext();
+	}
+
+	// true if a command of a higher priority than the running one is waiting
+	boolean hasUrgentCommands() {
+		if (current == null) {
+			return false;
+		}
+		for (int lane = 0; lane < current.getLane(); lane++) {
+			if (!lanes.get(lane).isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// put the running command back at the head of its lane and start the most urgent one
+	void yield() {
+		if (state != State.RUNNING) {
+			return;
+		}
+		scheduler.removeCallbacks(watchdog);
+		lanes.get(current.getLane()).addFirst(current);
+		current = null;
+		state = State.IDLE;
+		startNext();
+	}
+
+	// the GATT callback of the running command arrived, start the next command
+	void completed() {
+		if (state != State.RUNNING) {
+			return;
+		}
+		scheduler.removeCallbacks(watchdog);
+		current = null;
+		state = State.IDLE;
+		startNext();
+	}
+
+	// the running command is still making progress, restart its deadline
+	void progress() {
+		if (state == State.RUNNING && timeout > 0) {
+			scheduler.removeCallbacks(watchdog);
+			scheduler.postDelayed(watchdog, timeout);
+		}
+	}
+
+	// remove the commands not started yet, the running one is completed without starting the next
+	List<BLECommand> clear() {
+		scheduler.removeCallbacks(watchdog);
+		current = null;
+		state = State.IDLE;
+		List<BLECommand> removed = new ArrayList<>();
+		for (int lane = 0; lane < lanes.size(); lane++) {
+			removed.addAll(lanes.get(lane));
+			lanes.get(lane).clear();
+			passed[lane] = 0;
+		}
+		return removed;
+	}
+
+	private void startNext() {
+		// a loop and not a recursion, many commands can finish without waiting for a GATT callback
+		while (state == State.IDLE) {
+			BLECommand command = poll();
+			if (command == null) {
+				return;
+			}
+			current = command;
+			state = State.RUNNING;
+			if (executor.execute(command)) {
+				if (current == command && timeout > 0) {
+					scheduler.postDelayed(watchdog, timeout);
+				}
+			} else if (current == command) {
+				current = null;
+				state = State.IDLE;
+			}
+		}
+	}
+
+	private BLECommand poll() {
+		int next = -1;
+		// a starving lane first, starting from the lowest priority
+		for (int lane = lanes.size() - 1; lane >= 0 && next < 0; lane--) {
+			if (!lanes.get(lane).isEmpty() && passed[lane] >= MAX_PASSED) {
+				next = lane;
+			}
+		}
+		for (int lane = 0; lane < lanes.size() && next < 0; lane++) {
+			if (!lanes.get(lane).isEmpty()) {
+				next = lane;
+			}
+		}
+		if (next < 0) {
+			return null;
+		}
+
+		for (int lane = 0; lane < lanes.size(); lane++) {
+			if (lane != next && !lanes.get(lane).isEmpty()) {
+				passed[lane]++;
+			}
+		}
+		passed[next] = 0;
+		return lanes.get(next).pollFirst();
+	}
+
+	private void onDeadline() {
+		if (state != State.RUNNING) {
+			return;
+		}
+		BLECommand command = current;
+		current = null;
+		state = State.IDLE;
+		executor.timeout(command);
+		startNext();
+	}
+}
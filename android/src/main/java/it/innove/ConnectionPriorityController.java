@@ -0,0 +1,117 @@
+package it.innove;
+
+import android.bluetooth.BluetoothGatt;
+
+/**
+ * The connection priority of one peripheral. Without a policy it only keeps the priority last requested, with a
+ * ConnectionPriorityPolicy it switches the connection to CONNECTION_PRIORITY_HIGH while the link is busy and back
+ * to the idle priority after idleTimeout. Android is only reached through the Scheduler and the Link.
+ * Only used on the BLE thread.
+ */
+class ConnectionPriorityController {
+
+	interface Link {
+		// send the priority to the stack, false if it is refused
+		boolean requestConnectionPriority(int priority);
+
+		// true while a bulk command keeps the link busy
+		boolean isBusy();
+	}
+
+	private final Scheduler scheduler;
+	private final Link link;
+	// null leaves the priority to requestConnectionPriority
+	private ConnectionPriorityPolicy policy;
+	private int priority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+	private long notificationWindowStart;
+	private int notificationCount;
+	private final Runnable idle = new Runnable() {
+		@Override
+		public void run() {
+			lower();
+		}
+	};
+
+	ConnectionPriorityController(Scheduler scheduler, Link link) {
+		this.scheduler = scheduler;
+		this.link = link;
+	}
+
+	void setPolicy(ConnectionPriorityPolicy policy) {
+		this.policy = policy;
+		if (policy == null) {
+			scheduler.removeCallbacks(idle);
+		}
+	}
+
+	boolean hasPolicy() {
+		return policy != null;
+	}
+
+	int getPriority() {
+		return priority;
+	}
+
+	// a new connection starts balanced, nothing is pending after a disconnection
+	void reset() {
+		scheduler.removeCallbacks(idle);
+		priority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+		notificationCount = 0;
+	}
+
+	// false if the stack refused the priority, the previous one is kept in that case
+	boolean request(int priority) {
+		if (!link.requestConnectionPriority(priority)) {
+			return false;
+		}
+		this.priority = priority;
+		return true;
+	}
+
+	// switch to high priority while the link is busy, with a policy it is lowered again once idle
+	void raise() {
+		if (priority != BluetoothGatt.CONNECTION_PRIORITY_HIGH) {
+			request(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+		}
+		if (policy != null) {
+			scheduler.removeCallbacks(idle);
+			scheduler.postDelayed(idle, policy.getIdleTimeout());
+		}
+	}
+
+	// a bulk command or a write longer than one packet is started
+	void onBulkCommand() {
+		if (policy != null) {
+			raise();
+		}
+	}
+
+	// notifications received in the current one second window, the policy raises the priority above its rate
+	void onNotification() {
+		if (policy == null) {
+			return;
+		}
+		long now = scheduler.now();
+		if (now - notificationWindowStart >= 1000) {
+			notificationWindowStart = now;
+			notificationCount = 0;
+		}
+		if (++notificationCount >= policy.getNotificationRate()) {
+			raise();
+		}
+	}
+
+	private void lower() {
+		if (policy == null) {
+			return;
+		}
+		if (link.isBusy()) {
+			// still busy, check again after the next idle period
+			scheduler.postDelayed(idle, policy.getIdleTimeout());
+			return;
+		}
+		if (priority != policy.getIdlePriority()) {
+			request(policy.getIdlePriority());
+		}
+	}
+}
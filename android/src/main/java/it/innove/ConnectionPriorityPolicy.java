@@ -0,0 +1,63 @@
+package it.innove;
+
+import android.bluetooth.BluetoothGatt;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Settings of the automatic connection priority: the connection is switched to CONNECTION_PRIORITY_HIGH while
+ * bulk commands run or the notifications arrive fast, and back to idlePriority after idleTimeout without them.
+ */
+class ConnectionPriorityPolicy {
+
+	private int idleTimeout = 5000;
+	private int idlePriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+	// notifications in one second that switch the connection to high priority
+	private int notificationRate = 10;
+
+	// null when the policy is not enabled, IllegalArgumentException when one of its settings is out of range
+	static ConnectionPriorityPolicy fromOptions(ReadableMap options) {
+		if (!options.hasKey("connectionPriorityPolicy")) {
+			return null;
+		}
+
+		ReadableMap map = options.getMap("connectionPriorityPolicy");
+		ConnectionPriorityPolicy policy = new ConnectionPriorityPolicy();
+		if (map.hasKey("idleTimeout")) {
+			policy.idleTimeout = map.getInt("idleTimeout");
+			if (policy.idleTimeout <= 0) {
+				throw new IllegalArgumentException("idleTimeout must be greater than 0");
+			}
+		}
+		if (map.hasKey("idlePriority")) {
+			policy.idlePriority = map.getInt("idlePriority");
+			if (!isValid(policy.idlePriority)) {
+				throw new IllegalArgumentException("idlePriority " + policy.idlePriority + " is not a connection priority");
+			}
+		}
+		if (map.hasKey("notificationRate")) {
+			policy.notificationRate = map.getInt("notificationRate");
+			if (policy.notificationRate <= 0) {
+				throw new IllegalArgumentException("notificationRate must be greater than 0");
+			}
+		}
+		return policy;
+	}
+
+	// the values accepted by BluetoothGatt.requestConnectionPriority, any other one makes it throw
+	static boolean isValid(int priority) {
+		return priority >= BluetoothGatt.CONNECTION_PRIORITY_BALANCED && priority <= BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER;
+	}
+
+	int getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	int getIdlePriority() {
+		return idlePriority;
+	}
+
+	int getNotificationRate() {
+		return notificationRate;
+	}
+}
@@ -0,0 +1,319 @@
+package it.innove;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static it.innove.BleThreadUtil.runOnBleThread;
+
+/**
+ * Streams a file into a characteristic one window at a time. A window is read into a buffer reused for the whole
+ * transfer and queued as a bulk write, the next window is read once the previous one is written, so the memory
+ * used does not depend on the file size and the other operations of the peripheral can run between the windows.
+ * The file is opened, skipped and read on the I/O executor, everything else runs on the BLE thread.
+ */
+class FileTransfer {
+
+	private static final String LOG_TAG = "logs";
+	private static final int DEFAULT_WINDOW_SIZE = 4096;
+
+	private final String id;
+	private final Peripheral peripheral;
+	private final BleManager bleManager;
+	private final Context context;
+	private final String path;
+	private final UUID serviceUUID;
+	private final UUID characteristicUUID;
+	private final int chunkSize;
+	private final int writeType;
+	private final Integer queueSleepTime;
+	private final long progressInterval;
+	private final byte[] window;
+	private final Executor ioExecutor = BleThreadUtil.getIoExecutor();
+	private Callback callback;
+
+	// only used on the I/O executor
+	private InputStream stream;
+	// -1 when the size of a content URI is unknown, set once the file is opened
+	private long totalBytes = -1;
+	private long bytesSent;
+	private long bytesReported;
+	private int windowLength;
+	// a window is being read or written
+	private boolean inFlight = false;
+	private boolean paused = false;
+	private boolean cancelled = false;
+
+	private final Callback windowCallback = new Callback() {
+		@Override
+		public void invoke(Object... args) {
+			onWindowWritten(args.length > 0 ? args[0] : null);
+		}
+	};
+
+	// the options are checked by BleManager.writeFile, maxByteSize and windowSize are greater than 0
+	FileTransfer(String id, Peripheral peripheral, BleManager bleManager, Context context, String path,
+				 UUID serviceUUID, UUID characteristicUUID, ReadableMap options, Callback callback) {
+		this.id = id;
+		this.peripheral = peripheral;
+		this.bleManager = bleManager;
+		this.context = context;
+		this.path = path;
+		this.serviceUUID = serviceUUID;
+		this.characteristicUUID = characteristicUUID;
+		this.callback = callback;
+
+		// without maxByteSize the packets fill the MTU
+		chunkSize = options.hasKey("maxByteSize") ? options.getInt("maxByteSize") : peripheral.getMtu() - 3;
+		if (options.hasKey("withoutResponse") && options.getBoolean("withoutResponse")) {
+			writeType = BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+			queueSleepTime = options.hasKey("queueSleepTime") ? options.getInt("queueSleepTime") : 10;
+		} else {
+			writeType = BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+			queueSleepTime = null;
+		}
+		// a whole number of packets, so only the last packet of the file is short
+		int windowSize = options.hasKey("windowSize") ? options.getInt("windowSize") : DEFAULT_WINDOW_SIZE;
+		window = new byte[Math.max(chunkSize, windowSize / chunkSize * chunkSize)];
+		progressInterval = options.hasKey("progressInterval") ? options.getInt("progressInterval") : window.length;
+		bytesSent = options.hasKey("offset") ? options.getInt("offset") : 0;
+		bytesReported = bytesSent;
+	}
+
+	// a content URI or a file path, with or without the file scheme
+	private static InputStream open(Context context, String path) throws IOException {
+		if (path.startsWith("content://")) {
+			InputStream stream = context.getContentResolver().openInputStream(Uri.parse(path));
+			if (stream == null) {
+				throw new FileNotFoundException(path);
+			}
+			return stream;
+		}
+		return new FileInputStream(toFile(path));
+	}
+
+	// -1 when it is unknown
+	private static long length(String path) {
+		if (path.startsWith("content://")) {
+			return -1;
+		}
+		return toFile(path).length();
+	}
+
+	private static File toFile(String path) {
+		return new File(path.startsWith("file://") ? path.substring("file://".length()) : path);
+	}
+
+	void start() {
+		Log.d(LOG_TAG, "Start transfer " + id + " from byte " + bytesSent);
+		final long offset = bytesSent;
+		inFlight = true;
+		ioExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final long length = length(path);
+				final String error = openAt(offset);
+				runOnBleThread(new Runnable() {
+					@Override
+					public void run() {
+						inFlight = false;
+						totalBytes = length;
+						if (error != null) {
+							finish(error);
+						} else {
+							sendNext();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	// open the file and skip to the offset to resume from, the error or null
+	private String openAt(long offset) {
+		try {
+			stream = open(context, path);
+		} catch (IOException e) {
+			return "Cannot open " + path + ": " + e.getMessage();
+		}
+		try {
+			long skipped = 0;
+			while (skipped < offset) {
+				long count = stream.skip(offset - skipped);
+				if (count <= 0) {
+					break;
+				}
+				skipped += count;
+			}
+			if (skipped < offset) {
+				return "Offset " + offset + " is beyond the end of the file";
+			}
+		} catch (IOException e) {
+			return "Read failed: " + e.getMessage();
+		}
+		return null;
+	}
+
+	// the window being read or written is completed first
+	void pause() {
+		paused = true;
+	}
+
+	void resume() {
+		if (paused) {
+			paused = false;
+			if (!inFlight) {
+				sendNext();
+			}
+		}
+	}
+
+	void cancel() {
+		cancelled = true;
+		if (!inFlight) {
+			finish(ErrorTypes.CANCELLED);
+		}
+	}
+
+	private void sendNext() {
+		if (cancelled) {
+			finish(ErrorTypes.CANCELLED);
+			return;
+		}
+		if (paused) {
+			sendProgress();
+			return;
+		}
+
+		inFlight = true;
+		ioExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				int length = 0;
+				String error = null;
+				try {
+					length = readWindow();
+				} catch (IOException e) {
+					error = "Read failed: " + e.getMessage();
+				}
+				final int windowRead = length;
+				final String readError = error;
+				runOnBleThread(new Runnable() {
+					@Override
+					public void run() {
+						onWindowRead(windowRead, readError);
+					}
+				});
+			}
+		});
+	}
+
+	// fill the window, shorter only at the end of the file
+	private int readWindow() throws IOException {
+		int length = 0;
+		while (length < window.length) {
+			int count = stream.read(window, length, window.length - length);
+			if (count < 0) {
+				break;
+			}
+			length += count;
+		}
+		return length;
+	}
+
+	private void onWindowRead(int length, String error) {
+		inFlight = false;
+		if (error != null) {
+			finish(error);
+			return;
+		}
+		if (cancelled) {
+			finish(ErrorTypes.CANCELLED);
+			return;
+		}
+		if (length == 0) {
+			finish(null);
+			return;
+		}
+
+		// a window read before a pause is still written, its bytes are already consumed from the stream
+		windowLength = length;
+		// only the last window of the file needs its own array
+		byte[] data = windowLength == window.length ? window : Arrays.copyOf(window, windowLength);
+		inFlight = true;
+		peripheral.queueWrite(serviceUUID, characteristicUUID, data, chunkSize, queueSleepTime, windowCallback, writeType, CommandQueue.LANE_BULK);
+	}
+
+	private void onWindowWritten(Object error) {
+		inFlight = false;
+		if (error != null) {
+			finish(error.toString());
+			return;
+		}
+
+		bytesSent += windowLength;
+		if (bytesSent - bytesReported >= progressInterval) {
+			sendProgress();
+		}
+		sendNext();
+	}
+
+	private void sendProgress() {
+		if (bytesSent == bytesReported) {
+			return;
+		}
+		bytesReported = bytesSent;
+
+		WritableMap map = Arguments.createMap();
+		map.putString("transferId", id);
+		map.putString("peripheral", peripheral.getDevice().getAddress());
+		map.putDouble("bytesSent", bytesSent);
+		map.putDouble("totalBytes", totalBytes);
+		bleManager.sendEvent("BleManagerTransferProgress", map);
+	}
+
+	// the callback gets the bytes written, the offset to resume from after an error
+	private void finish(String error) {
+		if (callback == null) {
+			return;
+		}
+		// after the reads already submitted, the executor runs in order
+		ioExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (stream == null) {
+					return;
+				}
+				try {
+					stream.close();
+				} catch (IOException e) {
+					Log.d(LOG_TAG, "Close failed: " + e.getMessage());
+				}
+			}
+		});
+		if (error == null) {
+			sendProgress();
+		} else {
+			Log.d(LOG_TAG, "Transfer " + id + " failed after " + bytesSent + " bytes: " + error);
+		}
+
+		Callback finished = callback;
+		callback = null;
+		finished.invoke(error, (double) bytesSent);
+	}
+}
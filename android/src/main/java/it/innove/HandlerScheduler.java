@@ -0,0 +1,36 @@
+package it.innove;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * The Scheduler of a looper thread.
+ */
+class HandlerScheduler implements Scheduler {
+
+	private final Handler handler;
+
+	HandlerScheduler(Handler handler) {
+		this.handler = handler;
+	}
+
+	@Override
+	public void post(Runnable runnable) {
+		handler.post(runnable);
+	}
+
+	@Override
+	public void postDelayed(Runnable runnable, long delay) {
+		handler.postDelayed(runnable, delay);
+	}
+
+	@Override
+	public void removeCallbacks(Runnable runnable) {
+		handler.removeCallbacks(runnable);
+	}
+
+	@Override
+	public long now() {
+		return SystemClock.elapsedRealtime();
+	}
+}
@@ -2,10 +2,9 @@ package it.innove;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.util.Log;
 import com.facebook.react.bridge.*;
 
-import static com.facebook.react.bridge.UiThreadUtil.runOnUiThread;
+import static it.innove.BleThreadUtil.runOnBleThread;
 
 public class LegacyScanManager extends ScanManager {
 
@@ -15,10 +14,10 @@ public class LegacyScanManager extends ScanManager {
 
 	@Override
 	public void stopScan(Callback callback) {
-		// update scanSessionId to prevent stopping next scan by running timeout thread
-		scanSessionId.incrementAndGet();
-
-		getBluetoothAdapter().stopLeScan(mLeScanCallback);
+		cancelScanTimeout();
+		stopContinuousScan();
+		stopScanning();
+		stopDiscovery();
 		callback.invoke();
 	}
 
@@ -29,24 +28,10 @@ public class LegacyScanManager extends ScanManager {
 				@Override
 				public void onLeScan(final BluetoothDevice device, final int rssi,
 									 final byte[] scanRecord) {
-					runOnUiThread(new Runnable() {
+					runOnBleThread(new Runnable() {
 						@Override
 						public void run() {
-							Log.i(bleManager.LOG_TAG, "DiscoverPeripheral: " + device.getName());
-							String address = device.getAddress();
-							Peripheral peripheral;
-
-							if (!bleManager.peripherals.containsKey(address)) {
-								peripheral = new Peripheral(device, rssi, scanRecord, reactContext);
-								bleManager.peripherals.put(device.getAddress(), peripheral);
-							} else {
-								peripheral = bleManager.peripherals.get(address);
-								peripheral.updateRssi(rssi);
-								peripheral.updateData(scanRecord);
-							}
-
-							WritableMap map = peripheral.asWritableMap();
-							bleManager.sendEvent("BleManagerDiscoverPeripheral", map);
+							onDiscoverPeripheral(device, rssi, scanRecord);
 						}
 					});
 				}
@@ -55,44 +40,37 @@ public class LegacyScanManager extends ScanManager {
 			};
 
 	@Override
-	public void scan(ReadableArray serviceUUIDs, final int scanSeconds, ReadableMap options, Callback callback) {
-		if (serviceUUIDs.size() > 0) {
-			Log.d(bleManager.LOG_TAG, "Filter is not working in pre-lollipop devices");
-		}
-		getBluetoothAdapter().startLeScan(mLeScanCallback);
-
-		if (scanSeconds > 0) {
-			Thread thread = new Thread() {
-				private int currentScanSession = scanSessionId.incrementAndGet();
-
-				@Override
-				public void run() {
+	protected void onScanTimeout() {
+		stopContinuousScan();
+		stopScanning();
+		stopDiscovery();
+		WritableMap map = Arguments.createMap();
+		bleManager.sendEvent("BleManagerStopScan", map);
+	}
 
-					try {
-						Thread.sleep(scanSeconds * 1000);
-					} catch (InterruptedException ignored) {
-					}
+	@Override
+	public void scan(ReadableArray serviceUUIDs, final int scanSeconds, boolean allowDuplicates, ReadableMap options, Callback callback) {
+		// startLeScan filters only on complete service lists, the service UUIDs are filtered natively instead
+		if (!startDiscovery(serviceUUIDs, allowDuplicates, options, callback)) {
+			return;
+		}
+		startScanner(options.getInt("scanMode"), options);
 
-					runOnUiThread(new Runnable() {
-						@Override
-						public void run() {
-							BluetoothAdapter btAdapter = getBluetoothAdapter();
-							// check current scan session was not stopped
-							if (scanSessionId.intValue() == currentScanSession) {
-								if (btAdapter.getState() == BluetoothAdapter.STATE_ON) {
-									btAdapter.stopLeScan(mLeScanCallback);
-								}
-								WritableMap map = Arguments.createMap();
-								bleManager.sendEvent("BleManagerStopScan", map);
-							}
-						}
-					});
+		scheduleScanTimeout(scanSeconds);
+		callback.invoke();
+	}
 
-				}
+	// the scan mode is not available before lollipop
+	@Override
+	protected void startScanning(int scanMode) {
+		getBluetoothAdapter().startLeScan(mLeScanCallback);
+	}
 
-			};
-			thread.start();
+	@Override
+	protected void stopScanning() {
+		BluetoothAdapter btAdapter = getBluetoothAdapter();
+		if (btAdapter.getState() == BluetoothAdapter.STATE_ON) {
+			btAdapter.stopLeScan(mLeScanCallback);
 		}
-		callback.invoke();
 	}
 }
@@ -15,9 +15,11 @@ import com.facebook.react.bridge.*;
 import org.json.JSONException;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-import static com.facebook.react.bridge.UiThreadUtil.runOnUiThread;
+import static it.innove.BleThreadUtil.runOnBleThread;
 
 @TargetApi(Build.VERSION_CODES.LOLLIPOP)
 public class LollipopScanManager extends ScanManager {
@@ -26,25 +28,41 @@ public class LollipopScanManager extends ScanManager {
 		super(reactContext, bleManager);
 	}
 
+	// settings of the current scan, used each time the continuous scan starts the scanner again
+	private List<ScanFilter> filters = new ArrayList<>();
+	private int numberOfMatches;
+	private int matchMode;
+	private int reportDelay;
+
 	@Override
 	public void stopScan(Callback callback) {
-		// update scanSessionId to prevent stopping next scan by running timeout thread
-		scanSessionId.incrementAndGet();
-
-		getBluetoothAdapter().getBluetoothLeScanner().stopScan(mScanCallback);
+		cancelScanTimeout();
+		stopContinuousScan();
+		stopScanning();
+		stopDiscovery();
 		callback.invoke();
 	}
 
     @Override
-    public void scan(ReadableArray serviceUUIDs, final int scanSeconds, ReadableMap options,  Callback callback) {
-        ScanSettings.Builder scanSettingsBuilder = new ScanSettings.Builder();
-        List<ScanFilter> filters = new ArrayList<>();
-        
-        scanSettingsBuilder.setScanMode(options.getInt("scanMode"));
-        
+    public void scan(ReadableArray serviceUUIDs, final int scanSeconds, boolean allowDuplicates, ReadableMap options,  Callback callback) {
+        // the hardware filters are checked again natively with the other filter options
+        if (!startDiscovery(serviceUUIDs, allowDuplicates, options, callback)) {
+            return;
+        }
+        filters = new ArrayList<>();
+
         if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.M){
-            scanSettingsBuilder.setNumOfMatches(options.getInt("numberOfMatches"));
-            scanSettingsBuilder.setMatchMode(options.getInt("matchMode"));
+            numberOfMatches = options.getInt("numberOfMatches");
+            matchMode = options.getInt("matchMode");
+        }
+
+        reportDelay = 0;
+        if (options.hasKey("reportDelay") && options.getInt("reportDelay") > 0) {
+            if (getBluetoothAdapter().isOffloadedScanBatchingSupported()) {
+                reportDelay = options.getInt("reportDelay");
+            } else {
+                Log.d(bleManager.LOG_TAG, "Batch scan is not supported by this device");
+            }
         }
         
         if (serviceUUIDs.size() > 0) {
@@ -54,77 +72,91 @@ public class LollipopScanManager extends ScanManager {
                 Log.d(bleManager.LOG_TAG, "Filter service: " + serviceUUIDs.getString(i));
             }
         }
-        
-        getBluetoothAdapter().getBluetoothLeScanner().startScan(filters, scanSettingsBuilder.build(), mScanCallback);
-        if (scanSeconds > 0) {
-            Thread thread = new Thread() {
-                private int currentScanSession = scanSessionId.incrementAndGet();
-                
-                @Override
-                public void run() {
-                    
-                    try {
-                        Thread.sleep(scanSeconds * 1000);
-                    } catch (InterruptedException ignored) {
-                    }
-                    
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            BluetoothAdapter btAdapter = getBluetoothAdapter();
-                            // check current scan session was not stopped
-                            if (scanSessionId.intValue() == currentScanSession) {
-                                if(btAdapter.getState() == BluetoothAdapter.STATE_ON) {
-                                    btAdapter.getBluetoothLeScanner().stopScan(mScanCallback);
-                                }
-                                WritableMap map = Arguments.createMap();
-                                bleManager.sendEvent("BleManagerStopScan", map);
-                            }
-                        }
-                    });
-                    
-                }
-                
-            };
-            thread.start();
-        }
+
+        startScanner(options.getInt("scanMode"), options);
+        scheduleScanTimeout(scanSeconds);
         callback.invoke();
     }
 
+	@Override
+	protected void startScanning(int scanMode) {
+		ScanSettings.Builder scanSettingsBuilder = new ScanSettings.Builder();
+		scanSettingsBuilder.setScanMode(scanMode);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+			scanSettingsBuilder.setNumOfMatches(numberOfMatches);
+			scanSettingsBuilder.setMatchMode(matchMode);
+		}
+		if (reportDelay > 0) {
+			scanSettingsBuilder.setReportDelay(reportDelay);
+		}
+		getBluetoothAdapter().getBluetoothLeScanner().startScan(filters, scanSettingsBuilder.build(), mScanCallback);
+	}
+
+	@Override
+	protected void stopScanning() {
+		BluetoothAdapter btAdapter = getBluetoothAdapter();
+		if (btAdapter.getState() == BluetoothAdapter.STATE_ON) {
+			// deliver the results still held by the controller when a report delay is used
+			btAdapter.getBluetoothLeScanner().flushPendingScanResults(mScanCallback);
+			btAdapter.getBluetoothLeScanner().stopScan(mScanCallback);
+		}
+	}
+
+	@Override
+	protected void onScanTimeout() {
+		stopContinuousScan();
+		stopScanning();
+		stopDiscovery();
+		WritableMap map = Arguments.createMap();
+		bleManager.sendEvent("BleManagerStopScan", map);
+	}
+
 	private ScanCallback mScanCallback = new ScanCallback() {
 		@Override
 		public void onScanResult(final int callbackType, final ScanResult result) {
 
-			runOnUiThread(new Runnable() {
+			runOnBleThread(new Runnable() {
 				@Override
 				public void run() {
-					Log.i(bleManager.LOG_TAG, "DiscoverPeripheral: " + result.getDevice().getName());
-					String address = result.getDevice().getAddress();
-                    Peripheral peripheral = null;
-
-					if (!bleManager.peripherals.containsKey(address)) {
-						peripheral = new Peripheral(result.getDevice(), result.getRssi(), result.getScanRecord().getBytes(), reactContext);
-						bleManager.peripherals.put(address, peripheral);
-					} else {
-						peripheral = bleManager.peripherals.get(address);
-						peripheral.updateRssi(result.getRssi());
-						peripheral.updateData(result.getScanRecord().getBytes());
-					}
-
-					WritableMap map = peripheral.asWritableMap();
-					bleManager.sendEvent("BleManagerDiscoverPeripheral", map);
+					onDiscoverPeripheral(result.getDevice(), result.getRssi(), result.getScanRecord().getBytes());
 				}
 			});
 		}
 
 		@Override
 		public void onBatchScanResults(final List<ScanResult> results) {
+
+			runOnBleThread(new Runnable() {
+				@Override
+				public void run() {
+					Map<String, Peripheral> discovered = new LinkedHashMap<>();
+					for (ScanResult result : results) {
+						Peripheral peripheral = updatePeripheral(result.getDevice(), result.getRssi(), result.getScanRecord().getBytes());
+						if (peripheral != null && shouldReport(peripheral)) {
+							discovered.put(result.getDevice().getAddress(), peripheral);
+						}
+					}
+					if (!discovered.isEmpty()) {
+						sendDiscoveries(discovered.values());
+					}
+				}
+			});
 		}
 
 		@Override
 		public void onScanFailed(final int errorCode) {
-            WritableMap map = Arguments.createMap();
-            bleManager.sendEvent("BleManagerStopScan", map);
+			runOnBleThread(new Runnable() {
+				@Override
+				public void run() {
+					Log.d(bleManager.LOG_TAG, "Scan failed: " + errorCode);
+					if (restartAfterFailure()) {
+						return;
+					}
+					stopDiscovery();
+					WritableMap map = Arguments.createMap();
+					bleManager.sendEvent("BleManagerStopScan", map);
+				}
+			});
 		}
 	};
 }
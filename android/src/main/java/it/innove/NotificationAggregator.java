@@ -0,0 +1,105 @@
+package it.innove;
+
+import android.os.Handler;
+import android.util.Base64;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The notifications of one characteristic buffered and sent to JS as one event every flushInterval milliseconds
+ * or every maxPackets notifications, whichever comes first, so a fast stream does not flood the JS thread.
+ * Only used on the BLE thread.
+ */
+class NotificationAggregator {
+
+	private final Handler handler;
+	private final ReactContext reactContext;
+	private final String peripheral;
+	private final String service;
+	private final String characteristic;
+	private final boolean base64;
+	// 0 disables the limit
+	private final int flushInterval;
+	private final int maxPackets;
+
+	private final List<byte[]> values = new ArrayList<>();
+	private final List<Long> timestamps = new ArrayList<>();
+	private final Runnable flusher = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	private NotificationAggregator(Handler handler, ReactContext reactContext, String peripheral, String service,
+								   String characteristic, boolean base64, int flushInterval, int maxPackets) {
+		this.handler = handler;
+		this.reactContext = reactContext;
+		this.peripheral = peripheral;
+		this.service = service;
+		this.characteristic = characteristic;
+		this.base64 = base64;
+		this.flushInterval = flushInterval;
+		this.maxPackets = maxPackets;
+	}
+
+	// null when the options do not ask for aggregation
+	static NotificationAggregator fromOptions(ReadableMap options, Handler handler, ReactContext reactContext,
+											  String peripheral, String service, String characteristic, boolean base64) {
+		int flushInterval = options.hasKey("flushInterval") ? options.getInt("flushInterval") : 0;
+		int maxPackets = options.hasKey("maxPackets") ? options.getInt("maxPackets") : 0;
+		if (flushInterval <= 0 && maxPackets <= 0) {
+			return null;
+		}
+		if (options.hasKey("encoding")) {
+			base64 = "base64".equals(options.getString("encoding"));
+		}
+		return new NotificationAggregator(handler, reactContext, peripheral, service, characteristic, base64, flushInterval, maxPackets);
+	}
+
+	void add(byte[] value, long timestamp) {
+		values.add(value);
+		timestamps.add(timestamp);
+		if (maxPackets > 0 && values.size() >= maxPackets) {
+			flush();
+		} else if (values.size() == 1 && flushInterval > 0) {
+			handler.postDelayed(flusher, flushInterval);
+		}
+	}
+
+	void flush() {
+		handler.removeCallbacks(flusher);
+		if (values.isEmpty()) {
+			return;
+		}
+
+		WritableArray valuesArray = Arguments.createArray();
+		WritableArray timestampsArray = Arguments.createArray();
+		for (int i = 0; i < values.size(); i++) {
+			if (base64) {
+				valuesArray.pushString(Base64.encodeToString(values.get(i), Base64.NO_WRAP));
+			} else {
+				valuesArray.pushArray(BleManager.bytesToWritableArray(values.get(i)));
+			}
+			timestampsArray.pushDouble(timestamps.get(i));
+		}
+		values.clear();
+		timestamps.clear();
+
+		WritableMap map = Arguments.createMap();
+		map.putString("peripheral", peripheral);
+		map.putString("characteristic", characteristic);
+		map.putString("service", service);
+		map.putArray("values", valuesArray);
+		map.putArray("timestamps", timestampsArray);
+		reactContext.getJSModule(RCTNativeAppEventEmitter.class).emit("BleManagerDidUpdateValuesForCharacteristic", map);
+	}
+}
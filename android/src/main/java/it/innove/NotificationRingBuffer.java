@@ -0,0 +1,159 @@
+package it.innove;
+
+import android.util.Base64;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.Arrays;
+
+/**
+ * The notifications of one characteristic kept until JS drains them. The values and their arrival times are stored
+ * in arrays allocated once, so a JS thread that falls behind costs a bounded amount of memory: when the buffer is full
+ * the overflow policy drops the oldest value, the new one, or keeps only the latest value.
+ * Only used on the BLE thread.
+ */
+class NotificationRingBuffer {
+
+	enum Overflow {
+		DROP_OLDEST,
+		DROP_NEWEST,
+		LATEST_ONLY
+	}
+
+	private final int capacity;
+	private final Overflow overflow;
+	private final boolean base64;
+	// the slot of the value at index i starts at i * slotSize
+	private int slotSize;
+	private byte[] data;
+	private final int[] lengths;
+	private final long[] timestamps;
+	private int head = 0;
+	private int count = 0;
+	// values lost since the last drain
+	private int dropped = 0;
+
+	private NotificationRingBuffer(int capacity, int slotSize, Overflow overflow, boolean base64) {
+		this.capacity = capacity;
+		this.slotSize = slotSize;
+		this.overflow = overflow;
+		this.base64 = base64;
+		data = new byte[capacity * slotSize];
+		lengths = new int[capacity];
+		timestamps = new long[capacity];
+	}
+
+	// null when the options do not ask for a buffer, a value longer than maxPacketSize makes the slots grow
+	static NotificationRingBuffer fromOptions(ReadableMap options, int maxPacketSize, boolean base64) {
+		if (!options.hasKey("bufferSize")) {
+			return null;
+		}
+		if (options.hasKey("maxPacketSize")) {
+			maxPacketSize = options.getInt("maxPacketSize");
+		}
+		if (options.hasKey("encoding")) {
+			base64 = "base64".equals(options.getString("encoding"));
+		}
+
+		Overflow overflow = Overflow.DROP_OLDEST;
+		String policy = options.hasKey("overflow") ? options.getString("overflow") : null;
+		if ("dropNewest".equals(policy)) {
+			overflow = Overflow.DROP_NEWEST;
+		} else if ("latestOnly".equals(policy)) {
+			overflow = Overflow.LATEST_ONLY;
+		}
+		int capacity = overflow == Overflow.LATEST_ONLY ? 1 : Math.max(1, options.getInt("bufferSize"));
+		return new NotificationRingBuffer(capacity, Math.max(1, maxPacketSize), overflow, base64);
+	}
+
+	// true if the value is the first one lost since the last drain
+	boolean add(byte[] value, long timestamp) {
+		boolean firstDrop = false;
+		if (count == capacity) {
+			firstDrop = dropped == 0;
+			dropped++;
+			if (overflow == Overflow.DROP_NEWEST) {
+				return firstDrop;
+			}
+			head = (head + 1) % capacity;
+			count--;
+		}
+		if (value.length > slotSize) {
+			grow(value.length);
+		}
+
+		int index = (head + count) % capacity;
+		System.arraycopy(value, 0, data, index * slotSize, value.length);
+		lengths[index] = value.length;
+		timestamps[index] = timestamp;
+		count++;
+		return firstDrop;
+	}
+
+	// the oldest values up to max, 0 for all of them
+	WritableMap drain(int max) {
+		int size = max > 0 ? Math.min(max, count) : count;
+		WritableArray values = Arguments.createArray();
+		WritableArray times = Arguments.createArray();
+		for (int i = 0; i < size; i++) {
+			int index = (head + i) % capacity;
+			int offset = index * slotSize;
+			if (base64) {
+				values.pushString(Base64.encodeToString(data, offset, lengths[index], Base64.NO_WRAP));
+			} else {
+				WritableArray value = Arguments.createArray();
+				for (int j = offset; j < offset + lengths[index]; j++) {
+					value.pushInt(data[j] & 0xFF);
+				}
+				values.pushArray(value);
+			}
+			times.pushDouble(timestamps[index]);
+		}
+
+		WritableMap result = Arguments.createMap();
+		result.putArray("values", values);
+		result.putArray("timestamps", times);
+		result.putInt("dropped", dropped);
+		result.putInt("remaining", count - size);
+		remove(size);
+		return result;
+	}
+
+	// forget the oldest values once they are sent, the drop count starts again
+	void remove(int size) {
+		head = (head + size) % capacity;
+		count -= size;
+		dropped = 0;
+	}
+
+	int size() {
+		return count;
+	}
+
+	int getDropped() {
+		return dropped;
+	}
+
+	// a copy of the value at index i, 0 is the oldest
+	byte[] get(int i) {
+		int index = (head + i) % capacity;
+		return Arrays.copyOfRange(data, index * slotSize, index * slotSize + lengths[index]);
+	}
+
+	long getTimestamp(int i) {
+		return timestamps[(head + i) % capacity];
+	}
+
+	// a value longer than the slots, after an MTU change, the values kept are moved to the new slots
+	private void grow(int newSlotSize) {
+		byte[] newData = new byte[capacity * newSlotSize];
+		for (int i = 0; i < capacity; i++) {
+			System.arraycopy(data, i * slotSize, newData, i * newSlotSize, lengths[i]);
+		}
+		data = newData;
+		slotSize = newSlotSize;
+	}
+}
@@ -8,6 +8,8 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Base64;
 import android.util.Log;
@@ -15,6 +17,7 @@ import android.util.Log;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Callback;
 import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
@@ -24,18 +27,21 @@ import org.json.JSONObject;
 import org.json.JSONArray;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
-import static android.bluetooth.BluetoothGatt.CONNECTION_PRIORITY_HIGH;
 import static android.os.Build.VERSION_CODES.LOLLIPOP;
+import static android.os.Build.VERSION_CODES.O;
+import static it.innove.BleThreadUtil.runOnBleThread;
 
 class ErrorTypes {
 	// Types
 	public static String DEVICE_DISCONNECTED = "DEVICE_DISCONNECTED";
+	public static String TIMEOUT = "TIMEOUT";
+	public static String CANCELLED = "CANCELLED";
 }
 
 /**
  * Peripheral wraps the BluetoothDevice and provides methods to convert to JSON.
+ * The GATT callbacks and the command queue are processed on the BLE thread, see {@link BleThreadUtil}.
  */
 public class Peripheral extends BluetoothGattCallback {
 
@@ -43,14 +49,36 @@ public class Peripheral extends BluetoothGattCallback {
     public static final String LOG_TAG = "logs";
 
     private BluetoothDevice device;
-    private byte[] advertisingData;
+    private volatile byte[] advertisingData;
+    // Base64 and AD structures of encodedAdvertisingData, computed again only when the scan record changes
+    private byte[] encodedAdvertisingData;
+    private String advertisingBase64;
+    private AdvertisingData parsedAdvertisingData;
     private int advertisingRSSI;
-    private boolean connected = false;
-    private ConcurrentLinkedQueue<BLECommand> commandQueue = new ConcurrentLinkedQueue<BLECommand>();
-    private boolean bleProcessing;
+    private volatile boolean connected = false;
+    private final CommandQueue commandQueue = new CommandQueue(BleThreadUtil.getBleScheduler(), new CommandQueue.Executor() {
+        @Override
+        public boolean execute(BLECommand command) {
+            return executeCommand(command);
+        }
+
+        @Override
+        public void timeout(BLECommand command) {
+            commandTimedOut(command);
+        }
+    });
 
+    // last advertising sent to JS, used to suppress duplicates while scanning
+    private int reportedSession = -1;
+    private int reportedRSSI;
+    private long reportedTimestamp;
+    private boolean advertisingChanged;
+    private volatile long lastSeen;
+    // smoothing of the advertised RSSI, only used on the BLE thread
+    private RssiFilter rssiFilter;
 
-    private BluetoothGatt gatt;
+
+    private volatile BluetoothGatt gatt;
 
     private Callback connectCallback;
     private Callback retrieveServicesCallback;
@@ -58,10 +86,57 @@ public class Peripheral extends BluetoothGattCallback {
     private Callback readRSSICallback;
     private Callback writeCallback;
     private Callback registerNotifyCallback;
+    private Callback requestMTUCallback;
+    private Callback phyCallback;
+
+    // the ATT MTU of the connection, a write packet holds MTU - 3 bytes
+    public static final int DEFAULT_MTU = 23;
+    private volatile int mtu = DEFAULT_MTU;
+    // reads queued or running, key is generateHashKey, only used on the BLE thread
+    private final Map<String, CoalescedCallback> pendingReads = new HashMap<>();
+    // the notified values are sent to JS as Base64 strings instead of arrays of bytes
+    private volatile boolean base64Notifications = false;
+    // the subscriptions whose notifications are sent in batches, key is notificationKey, only used on the BLE thread
+    private final Map<String, NotificationAggregator> aggregators = new HashMap<>();
+    // the subscriptions whose notifications wait for drainNotifications, kept after a disconnection so they can
+    // still be drained, key is notificationKey, only used on the BLE thread
+    private final Map<String, NotificationRingBuffer> ringBuffers = new HashMap<>();
 
     private ReactContext reactContext;
 
-    private List<byte[]> writeQueue = new ArrayList<>();
+    // the parts of the running write not sent yet, null when no write is running
+    private ChunkCursor writeCursor;
+    // the characteristic value is limited to 512 bytes, so is the data prepared by a reliable write
+    private static final int MAX_RELIABLE_WRITE_LENGTH = 512;
+
+    // write pump of the writes without response, each packet is sent once the previous one got its
+    // onCharacteristicWrite: BluetoothGatt refuses a write while another one is outstanding on every API level
+    private static final int MAX_WRITE_RETRIES = 20;
+    private final Handler bleHandler = BleThreadUtil.getBleHandler();
+    private boolean writeInFlight;
+    private int writeRetries;
+    private int writeRetryDelay;
+    private BluetoothGattCharacteristic pumpCharacteristic;
+    private final Runnable writePump = new Runnable() {
+        @Override
+        public void run() {
+            pumpWrite();
+        }
+    };
+
+    // connection priority last requested, raised to high while the link is busy when a policy is set
+    private final ConnectionPriorityController priorityController = new ConnectionPriorityController(BleThreadUtil.getBleScheduler(), new ConnectionPriorityController.Link() {
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            return setConnectionPriority(priority);
+        }
+
+        @Override
+        public boolean isBusy() {
+            BLECommand current = commandQueue.getCurrent();
+            return current != null && isBulk(current);
+        }
+    });
 
     public Peripheral(BluetoothDevice device, int advertisingRSSI, byte[] scanRecord, ReactContext reactContext) {
 
@@ -90,22 +165,39 @@ public class Peripheral extends BluetoothGattCallback {
         Log.d(LOG_TAG, "Peripheral event (" + eventName + "):" + device.getAddress());
     }
 
-    public void connect(Callback callback, Activity activity) {
-        if (!connected) {
-            BluetoothDevice device = getDevice();
-            this.connectCallback = callback;
-            gatt = device.connectGatt(activity, false, this);
-        } else {
-            if (gatt != null) {
-                callback.invoke();
-            } else
-                callback.invoke("BluetoothGatt is null");
-        }
+    public void connect(final Callback callback, final Activity activity) {
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!connected) {
+                    BluetoothDevice device = getDevice();
+                    connectCallback = callback;
+                    gatt = device.connectGatt(activity, false, Peripheral.this);
+                } else {
+                    if (gatt != null) {
+                        callback.invoke();
+                    } else
+                        callback.invoke("BluetoothGatt is null");
+                }
+            }
+        });
     }
 
     public void disconnect() {
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                doDisconnect();
+            }
+        });
+    }
+
+    private void doDisconnect() {
         connectCallback = null;
         connected = false;
+        failCommands(ErrorTypes.DEVICE_DISCONNECTED);
+        priorityController.reset();
+        endSubscriptions();
         if (gatt != null) {
             try {
                 gatt.disconnect();
@@ -128,7 +220,7 @@ public class Peripheral extends BluetoothGattCallback {
         try {
             map.putString("name", device.getName());
             map.putString("id", device.getAddress()); // mac address
-            map.putMap("advertising", byteArrayToWritableMap(advertisingData));
+            map.putMap("advertising", advertisingAsWritableMap());
             map.putInt("rssi", advertisingRSSI);
         } catch (Exception e) { // this shouldn't happen
             e.printStackTrace();
@@ -201,7 +293,7 @@ public class Peripheral extends BluetoothGattCallback {
         return object;
     }
 
-    static WritableMap byteArrayToWritableMap(byte[] bytes) throws JSONException {
+    static WritableMap byteArrayToWritableMap(byte[] bytes) {
         WritableMap object = Arguments.createMap();
         object.putString("CDVType", "ArrayBuffer");
         object.putString("data", Base64.encodeToString(bytes, Base64.NO_WRAP));
@@ -209,6 +301,79 @@ public class Peripheral extends BluetoothGattCallback {
         return object;
     }
 
+    private WritableMap advertisingAsWritableMap() {
+        byte[] bytes = advertisingData;
+        String base64;
+        AdvertisingData parsed;
+        synchronized (this) {
+            updateAdvertisingCache(bytes);
+            base64 = advertisingBase64;
+            parsed = parsedAdvertisingData;
+        }
+
+        WritableMap object = Arguments.createMap();
+        object.putString("CDVType", "ArrayBuffer");
+        object.putString("data", base64);
+        object.putArray("bytes", BleManager.bytesToWritableArray(bytes));
+
+        if (parsed.getFlags() != AdvertisingData.NO_FLAGS) {
+            object.putInt("flags", parsed.getFlags());
+        }
+        if (parsed.getLocalName() != null) {
+            object.putString("localName", parsed.getLocalName());
+        }
+        if (parsed.hasTxPowerLevel()) {
+            object.putInt("txPowerLevel", parsed.getTxPowerLevel());
+        }
+        if (!parsed.getServiceUUIDs().isEmpty()) {
+            WritableArray serviceUUIDs = Arguments.createArray();
+            for (UUID uuid : parsed.getServiceUUIDs()) {
+                serviceUUIDs.pushString(UUIDHelper.uuidToString(uuid));
+            }
+            object.putArray("serviceUUIDs", serviceUUIDs);
+        }
+        if (!parsed.getManufacturerData().isEmpty()) {
+            WritableMap manufacturerData = Arguments.createMap();
+            for (Map.Entry<Integer, byte[]> entry : parsed.getManufacturerData().entrySet()) {
+                manufacturerData.putMap(String.format("%04x", entry.getKey()), byteArrayToWritableMap(entry.getValue()));
+            }
+            object.putMap("manufacturerData", manufacturerData);
+        }
+        if (!parsed.getServiceData().isEmpty()) {
+            WritableMap serviceData = Arguments.createMap();
+            for (Map.Entry<UUID, byte[]> entry : parsed.getServiceData().entrySet()) {
+                serviceData.putMap(UUIDHelper.uuidToString(entry.getKey()), byteArrayToWritableMap(entry.getValue()));
+            }
+            object.putMap("serviceData", serviceData);
+        }
+        return object;
+    }
+
+    // the AD structures of a scan record, the cached ones are reused when the advertising did not change
+    public AdvertisingData parseAdvertisingData(byte[] scanRecord) {
+        byte[] bytes = advertisingData;
+        if (Arrays.equals(bytes, scanRecord)) {
+            synchronized (this) {
+                updateAdvertisingCache(bytes);
+                return parsedAdvertisingData;
+            }
+        }
+        return AdvertisingData.parse(scanRecord);
+    }
+
+    public synchronized AdvertisingData getParsedAdvertisingData() {
+        updateAdvertisingCache(advertisingData);
+        return parsedAdvertisingData;
+    }
+
+    private void updateAdvertisingCache(byte[] bytes) {
+        if (bytes != encodedAdvertisingData || parsedAdvertisingData == null) {
+            advertisingBase64 = bytes != null ? Base64.encodeToString(bytes, Base64.NO_WRAP) : null;
+            parsedAdvertisingData = AdvertisingData.parse(bytes);
+            encodedAdvertisingData = bytes;
+        }
+    }
+
     public boolean isConnected() {
         return connected;
     }
@@ -217,6 +382,19 @@ public class Peripheral extends BluetoothGattCallback {
       return !isConnected() || gatt == null;
     }
 
+    // true when there is no GATT client, neither connected nor connecting
+    public boolean isEvictable() {
+        return !connected && gatt == null;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public void touch() {
+        lastSeen = SystemClock.elapsedRealtime();
+    }
+
     public BluetoothDevice getDevice() {
         return device;
     }
@@ -229,17 +407,35 @@ public class Peripheral extends BluetoothGattCallback {
     }
 
     @Override
-    public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+    public void onServicesDiscovered(final BluetoothGatt gatt, int status) {
         super.onServicesDiscovered(gatt, status);
-        if (retrieveServicesCallback != null) {
-            WritableMap map = this.asWritableMap(gatt);
-            retrieveServicesCallback.invoke(null, map);
-            retrieveServicesCallback = null;
-        }
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!isRunning(BLECommand.RETRIEVE_SERVICES, null)) {
+                    return;
+                }
+                if (retrieveServicesCallback != null) {
+                    WritableMap map = asWritableMap(gatt);
+                    retrieveServicesCallback.invoke(null, map);
+                    retrieveServicesCallback = null;
+                }
+                commandCompleted();
+            }
+        });
     }
 
     @Override
-    public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+    public void onConnectionStateChange(final BluetoothGatt gatt, final int status, final int newState) {
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                handleConnectionStateChange(gatt, status, newState);
+            }
+        });
+    }
+
+    private void handleConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
 
         Log.d(LOG_TAG, "onConnectionStateChange from " + status + " to " + newState + " on peripheral:" + device.getAddress());
 
@@ -248,6 +444,8 @@ public class Peripheral extends BluetoothGattCallback {
         if (newState == BluetoothGatt.STATE_CONNECTED) {
 
             connected = true;
+            mtu = DEFAULT_MTU;
+            priorityController.reset();
 
             sendConnectionEvent(device, "BleManagerConnectPeripheral");
 
@@ -270,27 +468,13 @@ public class Peripheral extends BluetoothGattCallback {
             }
 
             sendConnectionEvent(device, "BleManagerDisconnectPeripheral");
-            List<Callback> callbacks = Arrays.asList(writeCallback, retrieveServicesCallback, readRSSICallback, readCallback, registerNotifyCallback);
-            for (Callback currentCallback : callbacks) {
-                if (currentCallback != null) {
-                    currentCallback.invoke(ErrorTypes.DEVICE_DISCONNECTED);
-                }
-            }
             if (connectCallback != null) {
                 connectCallback.invoke("Connection error");
                 connectCallback = null;
             }
-            writeCallback = null;
-            readCallback = null;
-            retrieveServicesCallback = null;
-            readRSSICallback = null;
-            registerNotifyCallback = null;
-
-            commandQueue.clear();
-            if(bleProcessing){
-              // Will set bleProcessing to false.
-              commandCompleted();
-            }
+            failCommands(ErrorTypes.DEVICE_DISCONNECTED);
+            priorityController.reset();
+            endSubscriptions();
 
         }
 
@@ -298,10 +482,41 @@ public class Peripheral extends BluetoothGattCallback {
 
     public void updateRssi(int rssi) {
         advertisingRSSI = rssi;
+        touch();
+    }
+
+    // the filter is created again when the settings change, so each scan starts from a new estimate
+    public RssiFilter getRssiFilter(RssiFilter.Settings settings) {
+        if (rssiFilter == null || !rssiFilter.hasSettings(settings)) {
+            rssiFilter = new RssiFilter(settings);
+        }
+        return rssiFilter;
     }
 
     public void updateData(byte[] data) {
-        advertisingData = data;
+        // keep the current array when nothing changed so the encoded advertising is reused
+        if (!Arrays.equals(advertisingData, data)) {
+            advertisingChanged = true;
+            advertisingData = data;
+        }
+    }
+
+    // true if this peripheral was not sent in the given scan session or its advertising changed since then
+    public boolean needsReport(int session, int rssiDelta, int interval, long now) {
+        if (session != reportedSession || advertisingChanged) {
+            return true;
+        }
+        if (rssiDelta > 0 && Math.abs(advertisingRSSI - reportedRSSI) > rssiDelta) {
+            return true;
+        }
+        return interval > 0 && now - reportedTimestamp >= interval;
+    }
+
+    public void markReported(int session, long now) {
+        reportedSession = session;
+        reportedRSSI = advertisingRSSI;
+        reportedTimestamp = now;
+        advertisingChanged = false;
     }
 
     public int unsignedToBytes(byte b) {
@@ -309,32 +524,78 @@ public class Peripheral extends BluetoothGattCallback {
     }
 
     @Override
-    public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+    public void onCharacteristicChanged(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic) {
         super.onCharacteristicChanged(gatt, characteristic);
 
-        byte[] dataValue = characteristic.getValue();
-        Log.d(LOG_TAG, "Read: " + BleManager.bytesToHex(dataValue) + " from peripheral: " + device.getAddress());
-
-        WritableMap map = Arguments.createMap();
-        map.putString("peripheral", device.getAddress());
-        map.putString("characteristic", characteristic.getUuid().toString());
-        map.putString("service", characteristic.getService().getUuid().toString());
-        map.putArray("value", BleManager.bytesToWritableArray(dataValue));
-        sendEvent("BleManagerDidUpdateValueForCharacteristic", map);
+        // the characteristic value is replaced by the next notification, keep the one of this callback
+        final byte[] dataValue = characteristic.getValue();
+        final long timestamp = System.currentTimeMillis();
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                priorityController.onNotification();
+                String key = notificationKey(characteristic.getService().getUuid(), characteristic.getUuid());
+                NotificationRingBuffer ringBuffer = ringBuffers.get(key);
+                if (ringBuffer != null) {
+                    if (ringBuffer.add(dataValue, timestamp)) {
+                        // once until the next drain, the count is in the drain result
+                        WritableMap map = Arguments.createMap();
+                        map.putString("peripheral", device.getAddress());
+                        map.putString("characteristic", characteristic.getUuid().toString());
+                        map.putString("service", characteristic.getService().getUuid().toString());
+                        sendEvent("BleManagerNotificationOverflow", map);
+                    }
+                    return;
+                }
+                NotificationAggregator aggregator = aggregators.get(key);
+                if (aggregator != null) {
+                    aggregator.add(dataValue, timestamp);
+                    return;
+                }
+                Log.d(LOG_TAG, "Read: " + BleManager.bytesToHex(dataValue) + " from peripheral: " + device.getAddress());
+
+                WritableMap map = Arguments.createMap();
+                map.putString("peripheral", device.getAddress());
+                map.putString("characteristic", characteristic.getUuid().toString());
+                map.putString("service", characteristic.getService().getUuid().toString());
+                if (base64Notifications) {
+                    map.putString("value", Base64.encodeToString(dataValue, Base64.NO_WRAP));
+                } else {
+                    map.putArray("value", BleManager.bytesToWritableArray(dataValue));
+                }
+                sendEvent("BleManagerDidUpdateValueForCharacteristic", map);
+            }
+        });
     }
 
     @Override
-    public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+    public void onCharacteristicRead(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
         super.onCharacteristicRead(gatt, characteristic, status);
         Log.d(LOG_TAG, "onCharacteristicRead " + characteristic);
 
+        final byte[] dataValue = characteristic.getValue();
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                handleCharacteristicRead(characteristic, dataValue, status);
+            }
+        });
+    }
+
+    private void handleCharacteristicRead(BluetoothGattCharacteristic characteristic, byte[] dataValue, int status) {
+        // a late callback of a command that timed out
+        if (!isRunning(BLECommand.READ, characteristic)) {
+            return;
+        }
+
         if (readCallback != null) {
 
             if (status == BluetoothGatt.GATT_SUCCESS) {
-                byte[] dataValue = characteristic.getValue();
-
-                if (readCallback != null) {
-                    readCallback.invoke(null, BleManager.bytesToWritableArray(dataValue));
+                boolean base64 = commandQueue.getCurrent().isBase64();
+                if (readCallback instanceof CoalescedCallback) {
+                    ((CoalescedCallback) readCallback).invokeValue(dataValue, base64);
+                } else {
+                    readCallback.invoke(null, BleManager.encodeValue(dataValue, base64));
                 }
             } else {
                 readCallback.invoke("Error reading " + characteristic.getUuid() + " status=" + status, null);
@@ -348,16 +609,53 @@ public class Peripheral extends BluetoothGattCallback {
     }
 
     @Override
-    public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+    public void onCharacteristicWrite(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
         super.onCharacteristicWrite(gatt, characteristic, status);
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                handleCharacteristicWrite(characteristic, status);
+            }
+        });
+    }
+
+    private void handleCharacteristicWrite(BluetoothGattCharacteristic characteristic, int status) {
+        if (isRunning(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, characteristic)) {
+            handlePumpWrite(status);
+            return;
+        }
+        if (isRunning(BLECommand.RELIABLE_WRITE, characteristic)) {
+            handleReliableWrite(characteristic, status);
+            return;
+        }
+        // a late callback of a command that timed out
+        if (!isRunning(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, characteristic)) {
+            return;
+        }
 
         if (writeCallback != null) {
 
-            if (writeQueue.size() > 0) {
-                byte[] data = writeQueue.get(0);
-                writeQueue.remove(0);
-                doWrite(characteristic, data);
+            if (writeCursor != null && writeCursor.hasNext() && status == BluetoothGatt.GATT_SUCCESS) {
+                // let the more urgent commands run between the parts of a long write
+                if (commandQueue.hasUrgentCommands()) {
+                    commandQueue.getCurrent().setRemainingData(writeCursor);
+                    writeCursor = null;
+                    writeCallback = null;
+                    commandQueue.yield();
+                    return;
+                }
+
+                if (doWrite(characteristic, writeCursor.current())) {
+                    writeCursor.advance();
+                    // wait for the callback of this part, each part has its own deadline
+                    commandQueue.progress();
+                    return;
+                }
+                writeCursor = null;
+                writeCallback.invoke("Write failed");
+                writeCallback = null;
             } else {
+                writeCursor = null;
 
                 if (status == BluetoothGatt.GATT_SUCCESS) {
                     writeCallback.invoke();
@@ -374,9 +672,74 @@ public class Peripheral extends BluetoothGattCallback {
         commandCompleted();
     }
 
+    private void handleReliableWrite(BluetoothGattCharacteristic characteristic, int status) {
+        // a stray callback once all the parts are written and the execution is pending
+        if (writeCallback == null || writeCursor == null) {
+            return;
+        }
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            failReliableWrite("Error writing status: " + status);
+            return;
+        }
+
+        // each part has its own deadline
+        commandQueue.progress();
+        if (writeCursor.hasNext()) {
+            if (!sendReliableChunk(characteristic)) {
+                failReliableWrite("Reliable write failed");
+            }
+        } else {
+            writeCursor = null;
+            // the peripheral commits all the prepared parts at once, then onReliableWriteCompleted is called
+            if (!gatt.executeReliableWrite()) {
+                failReliableWrite("Execute reliable write failed");
+            }
+        }
+    }
+
+    @Override
+    public void onReliableWriteCompleted(BluetoothGatt gatt, final int status) {
+        super.onReliableWriteCompleted(gatt, status);
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                handleReliableWriteCompleted(status);
+            }
+        });
+    }
+
+    private void handleReliableWriteCompleted(int status) {
+        if (!isRunning(BLECommand.RELIABLE_WRITE, null)) {
+            return;
+        }
+
+        if (writeCallback != null) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                writeCallback.invoke();
+            } else {
+                writeCallback.invoke("Error executing reliable write status: " + status);
+            }
+            writeCallback = null;
+        }
+        commandCompleted();
+    }
+
     @Override
-    public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+    public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, final int status) {
         super.onDescriptorWrite(gatt, descriptor, status);
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                handleDescriptorWrite(status);
+            }
+        });
+    }
+
+    private void handleDescriptorWrite(int status) {
+        if (!isRunning(BLECommand.REGISTER_NOTIFY, null) && !isRunning(BLECommand.REMOVE_NOTIFY, null)) {
+            return;
+        }
+
         if (registerNotifyCallback != null) {
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 Log.d(LOG_TAG, "onDescriptorWrite success, registerNotify complete");
@@ -391,8 +754,21 @@ public class Peripheral extends BluetoothGattCallback {
     }
 
     @Override
-    public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+    public void onReadRemoteRssi(BluetoothGatt gatt, final int rssi, final int status) {
         super.onReadRemoteRssi(gatt, rssi, status);
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                handleReadRemoteRssi(rssi, status);
+            }
+        });
+    }
+
+    private void handleReadRemoteRssi(int rssi, int status) {
+        if (!isRunning(BLECommand.READ_RSSI, null)) {
+            return;
+        }
+
         if (readRSSICallback != null) {
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 updateRssi(rssi);
@@ -406,7 +782,141 @@ public class Peripheral extends BluetoothGattCallback {
         commandCompleted();
     }
 
-    private void setNotify(UUID serviceUUID, UUID characteristicUUID, Boolean notify, Callback callback) {
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, final int mtu, final int status) {
+        super.onMtuChanged(gatt, mtu, status);
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                handleMtuChanged(mtu, status);
+            }
+        });
+    }
+
+    private void handleMtuChanged(int mtu, int status) {
+        Log.d(LOG_TAG, "onMtuChanged " + mtu + " status=" + status + " on peripheral: " + device.getAddress());
+        // the stack can change the MTU without a request
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            this.mtu = mtu;
+        }
+        if (!isRunning(BLECommand.REQUEST_MTU, null)) {
+            return;
+        }
+
+        if (requestMTUCallback != null) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                requestMTUCallback.invoke(null, mtu);
+            } else {
+                requestMTUCallback.invoke("Error requesting MTU status=" + status, null);
+            }
+
+            requestMTUCallback = null;
+        }
+        commandCompleted();
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    @Override
+    public void onPhyUpdate(BluetoothGatt gatt, final int txPhy, final int rxPhy, final int status) {
+        super.onPhyUpdate(gatt, txPhy, rxPhy, status);
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                handlePhy(BLECommand.SET_PREFERRED_PHY, txPhy, rxPhy, status);
+            }
+        });
+    }
+
+    @Override
+    public void onPhyRead(BluetoothGatt gatt, final int txPhy, final int rxPhy, final int status) {
+        super.onPhyRead(gatt, txPhy, rxPhy, status);
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                handlePhy(BLECommand.READ_PHY, txPhy, rxPhy, status);
+            }
+        });
+    }
+
+    private void handlePhy(int type, int txPhy, int rxPhy, int status) {
+        Log.d(LOG_TAG, "PHY tx=" + txPhy + " rx=" + rxPhy + " status=" + status + " on peripheral: " + device.getAddress());
+        // the peripheral can change the PHY without a request
+        if (type == BLECommand.SET_PREFERRED_PHY) {
+            WritableMap map = phyMap(txPhy, rxPhy);
+            map.putString("peripheral", device.getAddress());
+            map.putInt("status", status);
+            sendEvent("BleManagerPhyUpdate", map);
+        }
+        if (!isRunning(type, null)) {
+            return;
+        }
+
+        if (phyCallback != null) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                phyCallback.invoke(null, phyMap(txPhy, rxPhy));
+            } else {
+                phyCallback.invoke("Error " + (type == BLECommand.READ_PHY ? "reading" : "setting") + " PHY status=" + status, null);
+            }
+
+            phyCallback = null;
+        }
+        commandCompleted();
+    }
+
+    private static WritableMap phyMap(int txPhy, int rxPhy) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("txPhy", txPhy);
+        map.putInt("rxPhy", rxPhy);
+        return map;
+    }
+
+    // true if the command waits for onPhyUpdate or onPhyRead
+    private boolean requestPhy(BLECommand command) {
+        Callback callback = command.getCallback();
+        if (isDisconnected()) {
+            callback.invoke(ErrorTypes.DEVICE_DISCONNECTED, null);
+            return false;
+        }
+        if (Build.VERSION.SDK_INT < O) {
+            // only the 1M PHY exists before Android 8.0, report it so the callers can go on without 2M
+            callback.invoke(null, phyMap(BluetoothDevice.PHY_LE_1M, BluetoothDevice.PHY_LE_1M));
+            return false;
+        }
+
+        phyCallback = callback;
+        if (command.getType() == BLECommand.READ_PHY) {
+            gatt.readPhy();
+        } else {
+            gatt.setPreferredPhy(command.getValue(), command.getRxPhy(), command.getPhyOptions());
+        }
+        return true;
+    }
+
+    // true if the command waits for onMtuChanged
+    private boolean requestMTU(int mtu, Callback callback) {
+        if (isDisconnected()) {
+            callback.invoke(ErrorTypes.DEVICE_DISCONNECTED, null);
+            return false;
+        }
+        if (Build.VERSION.SDK_INT < LOLLIPOP) {
+            callback.invoke("MTU request is not supported before Android 5.0", null);
+            return false;
+        }
+
+        requestMTUCallback = callback;
+        if (gatt.requestMtu(mtu)) {
+            return true;
+        }
+        requestMTUCallback = null;
+        callback.invoke("Request MTU failed", null);
+        return false;
+    }
+
+    // true if the command waits for onDescriptorWrite
+    private boolean setNotify(UUID serviceUUID, UUID characteristicUUID, Boolean notify, Callback callback) {
         Log.d(LOG_TAG, "setNotify");
         Boolean setNotifyCompleted = false;
 
@@ -459,22 +969,19 @@ public class Peripheral extends BluetoothGattCallback {
             }
           }
 
-          // If setNotifyCompleted is false, we ran into an error and can complete now.
+          // If setNotifyCompleted is false, we ran into an error and the command is completed now.
           // if we setNotifyCompleted is true, we'll need to wait for onDescriptorWrite
-          // before we can call commandCompleted();
-          if(!setNotifyCompleted){
-            commandCompleted();
-          }
+          return setNotifyCompleted;
     }
 
-    public void registerNotify(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
+    public boolean registerNotify(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
         Log.d(LOG_TAG, "registerNotify");
-        this.setNotify(serviceUUID, characteristicUUID, true, callback);
+        return this.setNotify(serviceUUID, characteristicUUID, true, callback);
     }
 
-    public void removeNotify(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
+    public boolean removeNotify(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
         Log.d(LOG_TAG, "removeNotify");
-        this.setNotify(serviceUUID, characteristicUUID, false, callback);
+        return this.setNotify(serviceUUID, characteristicUUID, false, callback);
     }
 
     // Some devices reuse UUIDs across characteristics, so we can't use service.getCharacteristic(characteristicUUID)
@@ -515,7 +1022,8 @@ public class Peripheral extends BluetoothGattCallback {
         }
     }
 
-    public void read(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
+    // true if the command waits for onCharacteristicRead
+    public boolean read(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
 
         if (isDisconnected()) {
             callback.invoke(ErrorTypes.DEVICE_DISCONNECTED, null);
@@ -527,41 +1035,52 @@ public class Peripheral extends BluetoothGattCallback {
                 callback.invoke("Characteristic " + characteristicUUID + " not found.", null);
             } else {
                 readCallback = callback;
-                if (!gatt.readCharacteristic(characteristic)) {
-                    readCallback = null;
-                    callback.invoke("Read failed", null);
+                if (gatt.readCharacteristic(characteristic)) {
+                    return true;
                 }
+                readCallback = null;
+                callback.invoke("Read failed", null);
             }
         }
-
-        commandCompleted();
+        return false;
     }
 
-    public void readRSSI(Callback callback) {
+    // true if the command waits for onReadRemoteRssi
+    public boolean readRSSI(Callback callback) {
         if (isDisconnected()) {
             callback.invoke(ErrorTypes.DEVICE_DISCONNECTED, null);
         } else {
             readRSSICallback = callback;
 
-            if (!gatt.readRemoteRssi()) {
-                readCallback = null;
-                callback.invoke("Read RSSI failed", null);
+            if (gatt.readRemoteRssi()) {
+                return true;
             }
+            readRSSICallback = null;
+            callback.invoke("Read RSSI failed", null);
         }
-        commandCompleted();
+        return false;
     }
 
     public void retrieveServices(Callback callback) {
+        BLECommand command = new BLECommand(null, null, null, null, callback, BLECommand.RETRIEVE_SERVICES);
+        queueCommand(command);
+    }
+
+    // true if the command waits for onServicesDiscovered
+    private boolean discoverServices(Callback callback) {
         if (isDisconnected()) {
             callback.invoke(ErrorTypes.DEVICE_DISCONNECTED, null);
-        } else {
-          this.retrieveServicesCallback = callback;
+            return false;
+        }
 
-          if (Build.VERSION.SDK_INT >= LOLLIPOP) {
-              gatt.requestConnectionPriority(CONNECTION_PRIORITY_HIGH);
-          }
-          gatt.discoverServices();
+        retrieveServicesCallback = callback;
+        priorityController.raise();
+        if (gatt.discoverServices()) {
+            return true;
         }
+        retrieveServicesCallback = null;
+        callback.invoke("Discover services failed", null);
+        return false;
     }
 
 
@@ -601,8 +1120,12 @@ public class Peripheral extends BluetoothGattCallback {
         return true;
     }
 
-    public void write(UUID serviceUUID, UUID characteristicUUID, byte[] data, Integer maxByteSize, Integer queueSleepTime, Callback callback, int writeType) {
+    // true if the command waits for onCharacteristicWrite, without maxByteSize the packets fill the MTU
+    public boolean write(UUID serviceUUID, UUID characteristicUUID, byte[] data, Integer maxByteSize, Integer queueSleepTime, Callback callback, int writeType) {
         Boolean didWrite = false;
+        if (maxByteSize == null) {
+            maxByteSize = mtu - 3;
+        }
         if (isDisconnected()) {
             callback.invoke(ErrorTypes.DEVICE_DISCONNECTED, null);
         } else {
@@ -614,7 +1137,7 @@ public class Peripheral extends BluetoothGattCallback {
             } else {
                 characteristic.setWriteType(writeType);
 
-                if (writeQueue.size() > 0) {
+                if (writeCursor != null) {
                     callback.invoke("You have already an queued message");
                 }
 
@@ -622,72 +1145,28 @@ public class Peripheral extends BluetoothGattCallback {
                     callback.invoke("You're already writing");
                 }
 
-                if (writeQueue.size() == 0 && writeCallback == null) {
+                if (writeCursor == null && writeCallback == null) {
 
-                    if (BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT == writeType) {
-                        writeCallback = callback;
+                    if (BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE == writeType) {
+                        return startWritePump(characteristic, data, maxByteSize, queueSleepTime, callback);
                     }
+                    writeCallback = callback;
 
                     if (data.length > maxByteSize) {
-                        int dataLength = data.length;
-                        int count = 0;
-                        byte[] firstMessage = null;
-                        List<byte[]> splittedMessage = new ArrayList<>();
-
-                        while (count < dataLength && (dataLength - count > maxByteSize)) {
-                            if (count == 0) {
-                                firstMessage = Arrays.copyOfRange(data, count, count + maxByteSize);
-                            } else {
-                                byte[] splitMessage = Arrays.copyOfRange(data, count, count + maxByteSize);
-                                splittedMessage.add(splitMessage);
-                            }
-                            count += maxByteSize;
-                        }
-                        if (count < dataLength) {
-                            // Other bytes in queue
-                            byte[] splitMessage = Arrays.copyOfRange(data, count, data.length);
-                            splittedMessage.add(splitMessage);
-                        }
-
-                        if (BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT == writeType) {
-                            writeQueue.addAll(splittedMessage);
-                            if (!doWrite(characteristic, firstMessage)) {
-                                writeQueue.clear();
-                                writeCallback = null;
-                                callback.invoke("Write failed 0");
-                            }
+                        // the parts are produced one at a time by onCharacteristicWrite
+                        writeCursor = new ChunkCursor(data, maxByteSize);
+                        if (doWrite(characteristic, writeCursor.current())) {
+                            writeCursor.advance();
+                            didWrite = true;
                         } else {
-                            try {
-                                boolean writeError = false;
-                                if (!doWrite(characteristic, firstMessage)) {
-                                    writeError = true;
-                                    callback.invoke("Write failed 1");
-                                }
-                                if (!writeError) {
-                                    Thread.sleep(queueSleepTime);
-                                    for (byte[] message : splittedMessage) {
-                                        if (!doWrite(characteristic, message)) {
-                                            writeError = true;
-                                            callback.invoke("Write failed 2");
-                                            break;
-                                        }
-                                        Thread.sleep(queueSleepTime);
-                                    }
-                                    if (!writeError)
-                                        callback.invoke();
-                                        didWrite = true;
-                                }
-                            } catch (InterruptedException e) {
-                                callback.invoke("Error during writing");
-                            }
+                            writeCursor = null;
+                            writeCallback = null;
+                            callback.invoke("Write failed 0");
                         }
                     } else {
                         if (doWrite(characteristic, data)) {
                             didWrite = true;
                             Log.d(LOG_TAG, "Write completed");
-                            if (BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE == writeType) {
-                                callback.invoke();
-                            }
                         } else {
                             callback.invoke("Write failed 3");
                             writeCallback = null;
@@ -702,8 +1181,162 @@ public class Peripheral extends BluetoothGattCallback {
         // before we can call commandCompleted();
         if(!didWrite){
           writeCallback = null;
-          commandCompleted();
         }
+        return didWrite;
+    }
+
+    // true if the command waits for onCharacteristicWrite, the parts are prepared by the peripheral and committed
+    // together by executeReliableWrite, without maxByteSize they fill a prepare write request
+    private boolean reliableWrite(UUID serviceUUID, UUID characteristicUUID, byte[] data, Integer maxByteSize, Callback callback) {
+        if (maxByteSize == null) {
+            maxByteSize = mtu - 5;
+        }
+        if (isDisconnected()) {
+            callback.invoke(ErrorTypes.DEVICE_DISCONNECTED);
+            return false;
+        }
+        if (data.length > MAX_RELIABLE_WRITE_LENGTH) {
+            callback.invoke("Reliable write is limited to " + MAX_RELIABLE_WRITE_LENGTH + " bytes");
+            return false;
+        }
+
+        BluetoothGattService service = gatt.getService(serviceUUID);
+        BluetoothGattCharacteristic characteristic = findWritableCharacteristic(service, characteristicUUID, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        if (characteristic == null) {
+            callback.invoke("Characteristic " + characteristicUUID + " not found.");
+            return false;
+        }
+        characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+
+        if (!gatt.beginReliableWrite()) {
+            callback.invoke("Begin reliable write failed");
+            return false;
+        }
+        writeCursor = new ChunkCursor(data, maxByteSize);
+        writeCallback = callback;
+        if (sendReliableChunk(characteristic)) {
+            return true;
+        }
+        gatt.abortReliableWrite();
+        writeCursor = null;
+        writeCallback = null;
+        callback.invoke("Reliable write failed");
+        return false;
+    }
+
+    private boolean sendReliableChunk(BluetoothGattCharacteristic characteristic) {
+        if (doWrite(characteristic, writeCursor.current())) {
+            writeCursor.advance();
+            return true;
+        }
+        return false;
+    }
+
+    // the peripheral discards the prepared parts
+    private void failReliableWrite(String error) {
+        gatt.abortReliableWrite();
+        writeCursor = null;
+        writeCallback.invoke(error);
+        writeCallback = null;
+        commandCompleted();
+    }
+
+    // send the data without response, paced by onCharacteristicWrite, always waits for the pump to finish
+    private boolean startWritePump(BluetoothGattCharacteristic characteristic, byte[] data, int maxByteSize, Integer queueSleepTime, Callback callback) {
+        writeCursor = new ChunkCursor(data, maxByteSize);
+        writeCallback = callback;
+        pumpCharacteristic = characteristic;
+        writeRetryDelay = queueSleepTime != null ? queueSleepTime : 10;
+        writeInFlight = false;
+        writeRetries = 0;
+        pumpWrite();
+        return true;
+    }
+
+    private void pumpWrite() {
+        if (writeCallback == null || writeInFlight) {
+            return;
+        }
+        if (!writeCursor.hasNext()) {
+            finishWritePump(null);
+            return;
+        }
+
+        if (!doWrite(pumpCharacteristic, writeCursor.current())) {
+            // the stack is still busy, try again shortly
+            if (++writeRetries <= MAX_WRITE_RETRIES) {
+                bleHandler.postDelayed(writePump, writeRetryDelay);
+            } else {
+                finishWritePump("Write failed");
+            }
+            return;
+        }
+        writeCursor.advance();
+        writeRetries = 0;
+        writeInFlight = true;
+    }
+
+    private void handlePumpWrite(int status) {
+        if (writeCallback == null) {
+            return;
+        }
+        writeInFlight = false;
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            Log.e(LOG_TAG, "Error onCharacteristicWrite:" + status);
+            finishWritePump("Error writing status: " + status);
+            return;
+        }
+
+        commandQueue.progress();
+        pumpWrite();
+    }
+
+    private void finishWritePump(String error) {
+        bleHandler.removeCallbacks(writePump);
+        Callback callback = writeCallback;
+        writeCallback = null;
+        writeCursor = null;
+        if (error != null) {
+            callback.invoke(error);
+        } else {
+            callback.invoke();
+        }
+        commandCompleted();
+    }
+
+    public void setBase64Notifications(boolean base64) {
+        base64Notifications = base64;
+    }
+
+    // continue a write that gave way to a more urgent command, true if it waits for onCharacteristicWrite
+    private boolean resumeWrite(BLECommand command) {
+        ChunkCursor remainingData = command.getRemainingData();
+        command.setRemainingData(null);
+        Callback callback = command.getCallback();
+
+        if (isDisconnected()) {
+            callback.invoke(ErrorTypes.DEVICE_DISCONNECTED);
+            return false;
+        }
+
+        BluetoothGattService service = gatt.getService(command.getServiceUUID());
+        BluetoothGattCharacteristic characteristic = findWritableCharacteristic(service, command.getCharacteristicUUID(), command.getType());
+        if (characteristic == null) {
+            callback.invoke("Characteristic " + command.getCharacteristicUUID() + " not found.");
+            return false;
+        }
+
+        characteristic.setWriteType(command.getType());
+        writeCursor = remainingData;
+        writeCallback = callback;
+        if (doWrite(characteristic, writeCursor.current())) {
+            writeCursor.advance();
+            return true;
+        }
+        writeCursor = null;
+        writeCallback = null;
+        callback.invoke("Write failed");
+        return false;
     }
 
     // Some peripherals re-use UUIDs for multiple characteristics so we need to check the properties
@@ -740,12 +1373,64 @@ public class Peripheral extends BluetoothGattCallback {
 
     // New queue logic
     public void queueRead(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
-        BLECommand command = new BLECommand(serviceUUID, characteristicUUID, null, null, callback, BLECommand.READ);
-        queueCommand(command);
+        queueRead(serviceUUID, characteristicUUID, callback, CommandQueue.LANE_NORMAL, false);
+    }
+
+    // a read of a characteristic already queued or running with the same encoding gets the result of that read
+    public void queueRead(final UUID serviceUUID, final UUID characteristicUUID, final Callback callback, final int lane, final boolean base64) {
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                BluetoothGattCharacteristic characteristic = null;
+                if (!isDisconnected()) {
+                    characteristic = findReadableCharacteristic(gatt.getService(serviceUUID), characteristicUUID);
+                }
+                if (characteristic == null) {
+                    // the read fails when it is executed, nothing to merge it with
+                    BLECommand command = new BLECommand(serviceUUID, characteristicUUID, null, null, callback, BLECommand.READ);
+                    command.setLane(lane);
+                    command.setBase64(base64);
+                    commandQueue.add(command);
+                    return;
+                }
+
+                final String key = generateHashKey(serviceUUID, characteristic) + (base64 ? "|base64" : "");
+                CoalescedCallback pending = pendingReads.get(key);
+                if (pending != null && pending.add(callback)) {
+                    Log.d(LOG_TAG, "Read " + characteristicUUID + " merged with the pending one");
+                    return;
+                }
+
+                CoalescedCallback callbacks = new CoalescedCallback(callback) {
+                    @Override
+                    protected void onInvoked() {
+                        if (pendingReads.get(key) == this) {
+                            pendingReads.remove(key);
+                        }
+                    }
+                };
+                pendingReads.put(key, callbacks);
+                BLECommand command = new BLECommand(serviceUUID, characteristicUUID, null, null, callbacks, BLECommand.READ);
+                command.setLane(lane);
+                command.setBase64(base64);
+                commandQueue.add(command);
+            }
+        });
     }
 
     public void queueWrite(UUID serviceUUID, UUID characteristicUUID, byte[] data, Integer maxByteSize, Integer queueSleepTime, Callback callback, int writeType) {
+        queueWrite(serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime, callback, writeType, CommandQueue.LANE_NORMAL);
+    }
+
+    public void queueWrite(UUID serviceUUID, UUID characteristicUUID, byte[] data, Integer maxByteSize, Integer queueSleepTime, Callback callback, int writeType, int lane) {
         BLECommand command = new BLECommand(serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime, callback, writeType);
+        command.setLane(lane);
+        queueCommand(command);
+    }
+
+    public void queueReliableWrite(UUID serviceUUID, UUID characteristicUUID, byte[] data, Integer maxByteSize, Callback callback, int lane) {
+        BLECommand command = new BLECommand(serviceUUID, characteristicUUID, data, maxByteSize, null, callback, BLECommand.RELIABLE_WRITE);
+        command.setLane(lane);
         queueCommand(command);
     }
 
@@ -754,8 +1439,107 @@ public class Peripheral extends BluetoothGattCallback {
         queueCommand(command);
     }
 
-    public void queueRemoveNotifyCallback(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
-        BLECommand command = new BLECommand(serviceUUID, characteristicUUID, null, null, callback, BLECommand.REMOVE_NOTIFY);
+    // the options choose how the notifications are delivered, one event each by default
+    public void queueRegisterNotifyCallback(final UUID serviceUUID, final UUID characteristicUUID, final ReadableMap options, final Callback callback) {
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                final String key = notificationKey(serviceUUID, characteristicUUID);
+                NotificationAggregator previous = aggregators.remove(key);
+                if (previous != null) {
+                    previous.flush();
+                }
+                ringBuffers.remove(key);
+
+                // installed now so the notifications sent right after the descriptor write are not missed
+                final NotificationRingBuffer ringBuffer = NotificationRingBuffer.fromOptions(options, mtu - 3, base64Notifications);
+                final NotificationAggregator aggregator = ringBuffer != null ? null : NotificationAggregator.fromOptions(options,
+                        bleHandler, reactContext, device.getAddress(), serviceUUID.toString(), characteristicUUID.toString(), base64Notifications);
+                if (ringBuffer != null) {
+                    ringBuffers.put(key, ringBuffer);
+                } else if (aggregator != null) {
+                    aggregators.put(key, aggregator);
+                }
+                Callback registered = callback;
+                if (ringBuffer != null || aggregator != null) {
+                    registered = new Callback() {
+                        @Override
+                        public void invoke(Object... args) {
+                            // the subscription failed, unless a later register replaced them the buffers go away
+                            if (args.length > 0 && args[0] != null) {
+                                if (ringBuffer != null && ringBuffers.get(key) == ringBuffer) {
+                                    ringBuffers.remove(key);
+                                }
+                                if (aggregator != null && aggregators.get(key) == aggregator) {
+                                    aggregators.remove(key);
+                                    aggregator.flush();
+                                }
+                            }
+                            callback.invoke(args);
+                        }
+                    };
+                }
+                commandQueue.add(new BLECommand(serviceUUID, characteristicUUID, null, null, registered, BLECommand.REGISTER_NOTIFY));
+            }
+        });
+    }
+
+    public void queueRemoveNotifyCallback(final UUID serviceUUID, final UUID characteristicUUID, final Callback callback) {
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                String key = notificationKey(serviceUUID, characteristicUUID);
+                NotificationAggregator aggregator = aggregators.remove(key);
+                if (aggregator != null) {
+                    aggregator.flush();
+                }
+                ringBuffers.remove(key);
+                commandQueue.add(new BLECommand(serviceUUID, characteristicUUID, null, null, callback, BLECommand.REMOVE_NOTIFY));
+            }
+        });
+    }
+
+    // the oldest buffered notifications, up to max or all of them with 0
+    public void drainNotifications(final UUID serviceUUID, final UUID characteristicUUID, final int max, final Callback callback) {
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                NotificationRingBuffer ringBuffer = ringBuffers.get(notificationKey(serviceUUID, characteristicUUID));
+                if (ringBuffer != null) {
+                    callback.invoke(null, ringBuffer.drain(max));
+                } else {
+                    callback.invoke("No notification buffer for " + characteristicUUID, null);
+                }
+            }
+        });
+    }
+
+    private static String notificationKey(UUID serviceUUID, UUID characteristicUUID) {
+        return serviceUUID + "|" + characteristicUUID;
+    }
+
+    // the subscriptions end with the connection, the buffered notifications are sent first
+    private void endSubscriptions() {
+        for (NotificationAggregator aggregator : aggregators.values()) {
+            aggregator.flush();
+        }
+        aggregators.clear();
+    }
+
+    public void queueRequestMTU(int mtu, Callback callback) {
+        BLECommand command = new BLECommand(null, null, null, null, callback, BLECommand.REQUEST_MTU);
+        command.setValue(mtu);
+        queueCommand(command);
+    }
+
+    public void queueSetPreferredPhy(int txPhy, int rxPhy, int phyOptions, Callback callback) {
+        BLECommand command = new BLECommand(null, null, null, null, callback, BLECommand.SET_PREFERRED_PHY);
+        command.setPreferredPhy(txPhy, rxPhy, phyOptions);
+        queueCommand(command);
+    }
+
+    public void queueReadPhy(Callback callback) {
+        BLECommand command = new BLECommand(null, null, null, null, callback, BLECommand.READ_PHY);
         queueCommand(command);
     }
 
@@ -764,68 +1548,178 @@ public class Peripheral extends BluetoothGattCallback {
         queueCommand(command);
     }
 
-    private void queueCommand(BLECommand command) {
-        commandQueue.add(command);
+    private void queueCommand(final BLECommand command) {
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                commandQueue.add(command);
+            }
+        });
+    }
 
-        if (!bleProcessing) {
-            Log.d(LOG_TAG, "Will not process commands, still processing...");
-            processCommands();
-        }
+    // the commands are added at once in their lane so they run in order, but the commands of a more urgent lane
+    // can still run between them and a long write yields to them between its packets
+    public void queueCommands(final List<BLECommand> commands) {
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                for (BLECommand command : commands) {
+                    commandQueue.add(command);
+                }
+            }
+        });
+    }
+
+    // 0 disables the deadline of the commands
+    public void setCommandTimeout(final int timeout) {
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                commandQueue.setTimeout(timeout);
+            }
+        });
     }
 
-    // command finished, queue the next command
+    // the GATT callback of the running command arrived, start the next command
     private void commandCompleted() {
         Log.d(LOG_TAG, "Processing Complete");
-        bleProcessing = false;
-        processCommands();
+        commandQueue.completed();
     }
 
-    // process the queue
-    private void processCommands() {
-        Log.d(LOG_TAG, "Processing Commands");
+    // true if the GATT callback is expected by the running command
+    private boolean isRunning(int type, @Nullable BluetoothGattCharacteristic characteristic) {
+        return commandQueue.isRunning(type, characteristic != null ? characteristic.getUuid() : null);
+    }
 
-        if (bleProcessing) {
-            return;
+    private void commandTimedOut(BLECommand command) {
+        Log.d(LOG_TAG, "Command " + command.getType() + " timed out on peripheral: " + device.getAddress());
+        if (command.getType() == BLECommand.RELIABLE_WRITE && gatt != null) {
+            gatt.abortReliableWrite();
         }
+        clearCommandCallbacks();
+        command.getCallback().invoke(ErrorTypes.TIMEOUT);
+    }
 
-        BLECommand command = commandQueue.poll();
-        if (command != null) {
-            if (command.getType() == BLECommand.READ) {
-                Log.d(LOG_TAG, "Read " + command.getCharacteristicUUID());
-                bleProcessing = true;
-                read(command.getServiceUUID(), command.getCharacteristicUUID(), command.getCallback());
-            } else if (command.getType() == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT) {
-                Log.d(LOG_TAG, "Write " + command.getCharacteristicUUID());
-                bleProcessing = true;
-                write(command.getServiceUUID(), command.getCharacteristicUUID(), command.getData(), command.getMaxByteSize(), command.getQueueSleepTime(), command.getCallback(), command.getType());
-            } else if (command.getType() == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) {
-                Log.d(LOG_TAG, "Write No Response " + command.getCharacteristicUUID());
-                bleProcessing = true;
-                write(command.getServiceUUID(), command.getCharacteristicUUID(), command.getData(), command.getMaxByteSize(), command.getQueueSleepTime(), command.getCallback(), command.getType());
-            } else if (command.getType() == BLECommand.REGISTER_NOTIFY) {
-                Log.d(LOG_TAG, "Register Notify " + command.getCharacteristicUUID());
-                bleProcessing = true;
-                registerNotify(command.getServiceUUID(), command.getCharacteristicUUID(), command.getCallback());
-            } else if (command.getType() == BLECommand.REMOVE_NOTIFY) {
-                Log.d(LOG_TAG, "Remove Notify " + command.getCharacteristicUUID());
-                bleProcessing = true;
-                removeNotify(command.getServiceUUID(), command.getCharacteristicUUID(), command.getCallback());
-            } else if (command.getType() == BLECommand.READ_RSSI) {
-                Log.d(LOG_TAG, "Read RSSI");
-                bleProcessing = true;
-                readRSSI(command.getCallback());
-            } else {
-                // this shouldn't happen
-                commandCompleted();
-                throw new RuntimeException("Unexpected BLE Command type " + command.getType());
+    // fail the running command and the queued ones
+    private void failCommands(String error) {
+        List<Callback> callbacks = Arrays.asList(writeCallback, retrieveServicesCallback, readRSSICallback, readCallback, registerNotifyCallback, requestMTUCallback, phyCallback);
+        for (Callback currentCallback : callbacks) {
+            if (currentCallback != null) {
+                currentCallback.invoke(error);
             }
-        } else {
-            Log.d(LOG_TAG, "Command Queue is empty.");
         }
+        clearCommandCallbacks();
+
+        for (BLECommand command : commandQueue.clear()) {
+            command.getCallback().invoke(error);
+        }
+    }
+
+    private void clearCommandCallbacks() {
+        writeCallback = null;
+        readCallback = null;
+        retrieveServicesCallback = null;
+        readRSSICallback = null;
+        registerNotifyCallback = null;
+        requestMTUCallback = null;
+        phyCallback = null;
+        writeCursor = null;
+        bleHandler.removeCallbacks(writePump);
+    }
+
+    // start the command, true if it waits for a GATT callback
+    private boolean executeCommand(BLECommand command) {
+        if (isBulk(command)) {
+            priorityController.onBulkCommand();
+        }
+
+        if (command.isCancelled()) {
+            command.getCallback().invoke(ErrorTypes.CANCELLED);
+            return false;
+        } else if (command.getType() == BLECommand.READ) {
+            Log.d(LOG_TAG, "Read " + command.getCharacteristicUUID());
+            return read(command.getServiceUUID(), command.getCharacteristicUUID(), command.getCallback());
+        } else if (command.getType() == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT && command.getRemainingData() != null) {
+            Log.d(LOG_TAG, "Resume write " + command.getCharacteristicUUID());
+            return resumeWrite(command);
+        } else if (command.getType() == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT) {
+            Log.d(LOG_TAG, "Write " + command.getCharacteristicUUID());
+            return write(command.getServiceUUID(), command.getCharacteristicUUID(), command.getData(), command.getMaxByteSize(), command.getQueueSleepTime(), command.getCallback(), command.getType());
+        } else if (command.getType() == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) {
+            Log.d(LOG_TAG, "Write No Response " + command.getCharacteristicUUID());
+            return write(command.getServiceUUID(), command.getCharacteristicUUID(), command.getData(), command.getMaxByteSize(), command.getQueueSleepTime(), command.getCallback(), command.getType());
+        } else if (command.getType() == BLECommand.RELIABLE_WRITE) {
+            Log.d(LOG_TAG, "Reliable write " + command.getCharacteristicUUID());
+            return reliableWrite(command.getServiceUUID(), command.getCharacteristicUUID(), command.getData(), command.getMaxByteSize(), command.getCallback());
+        } else if (command.getType() == BLECommand.REGISTER_NOTIFY) {
+            Log.d(LOG_TAG, "Register Notify " + command.getCharacteristicUUID());
+            return registerNotify(command.getServiceUUID(), command.getCharacteristicUUID(), command.getCallback());
+        } else if (command.getType() == BLECommand.REMOVE_NOTIFY) {
+            Log.d(LOG_TAG, "Remove Notify " + command.getCharacteristicUUID());
+            return removeNotify(command.getServiceUUID(), command.getCharacteristicUUID(), command.getCallback());
+        } else if (command.getType() == BLECommand.READ_RSSI) {
+            Log.d(LOG_TAG, "Read RSSI");
+            return readRSSI(command.getCallback());
+        } else if (command.getType() == BLECommand.REQUEST_MTU) {
+            Log.d(LOG_TAG, "Request MTU " + command.getValue());
+            return requestMTU(command.getValue(), command.getCallback());
+        } else if (command.getType() == BLECommand.SET_PREFERRED_PHY || command.getType() == BLECommand.READ_PHY) {
+            Log.d(LOG_TAG, "PHY command " + command.getType());
+            return requestPhy(command);
+        } else if (command.getType() == BLECommand.RETRIEVE_SERVICES) {
+            Log.d(LOG_TAG, "Retrieve services");
+            return discoverServices(command.getCallback());
+        }
+        // this shouldn't happen
+        Log.e(LOG_TAG, "Unexpected BLE Command type " + command.getType());
+        return false;
     }
 
     // End new queue logic
 
+    public void requestConnectionPriority(final int priority, final Callback callback) {
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isDisconnected()) {
+                    callback.invoke(ErrorTypes.DEVICE_DISCONNECTED);
+                } else if (Build.VERSION.SDK_INT < LOLLIPOP) {
+                    callback.invoke("Connection priority not supported before Android 5.0");
+                } else if (priorityController.request(priority)) {
+                    callback.invoke();
+                } else {
+                    callback.invoke("Request connection priority failed");
+                }
+            }
+        });
+    }
+
+    public void setConnectionPriorityPolicy(final ConnectionPriorityPolicy policy) {
+        runOnBleThread(new Runnable() {
+            @Override
+            public void run() {
+                priorityController.setPolicy(policy);
+            }
+        });
+    }
+
+    private boolean setConnectionPriority(int priority) {
+        if (Build.VERSION.SDK_INT < LOLLIPOP || gatt == null) {
+            return false;
+        }
+        if (!gatt.requestConnectionPriority(priority)) {
+            return false;
+        }
+        Log.d(LOG_TAG, "Connection priority " + priority + " on peripheral: " + device.getAddress());
+        return true;
+    }
+
+    // bulk lane commands and writes longer than one packet keep the link busy for a while
+    private boolean isBulk(BLECommand command) {
+        byte[] data = command.getData();
+        return command.getLane() == CommandQueue.LANE_BULK || (data != null && data.length > mtu - 3);
+    }
+
     private String generateHashKey(BluetoothGattCharacteristic characteristic) {
         return generateHashKey(characteristic.getService().getUuid(), characteristic);
     }
@@ -0,0 +1,105 @@
+package it.innove;
+
+import android.os.SystemClock;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread safe registry of the known peripherals, key is the MAC Address.
+ * Peripherals without a GATT connection are removed when they were not seen for the ttl and, when the registry
+ * is full, starting from the least recently seen one.
+ */
+public class PeripheralRegistry {
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	private final ConcurrentHashMap<String, Peripheral> peripherals = new ConcurrentHashMap<>();
+	private volatile int maxSize = DEFAULT_MAX_SIZE;
+	// 0 keeps the peripherals until the next scan
+	private volatile long ttl = 0;
+	private volatile long lastExpiration = 0;
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public void setTtl(long ttl) {
+		this.ttl = ttl;
+	}
+
+	public Peripheral get(String address) {
+		return peripherals.get(address);
+	}
+
+	public boolean containsKey(String address) {
+		return peripherals.containsKey(address);
+	}
+
+	public void put(String address, Peripheral peripheral) {
+		peripheral.touch();
+		peripherals.put(address, peripheral);
+
+		long now = SystemClock.elapsedRealtime();
+		if (ttl > 0 && now - lastExpiration > ttl / 2) {
+			removeExpired(now);
+		}
+		while (maxSize > 0 && peripherals.size() > maxSize) {
+			if (!evictLeastRecentlySeen()) {
+				break;
+			}
+		}
+	}
+
+	public Peripheral remove(String address) {
+		return peripherals.remove(address);
+	}
+
+	// weakly consistent view, can be iterated while the scan is running
+	public Collection<Peripheral> values() {
+		return peripherals.values();
+	}
+
+	public void removeDisconnected() {
+		for (Iterator<Peripheral> iterator = peripherals.values().iterator(); iterator.hasNext(); ) {
+			if (!iterator.next().isConnected()) {
+				iterator.remove();
+			}
+		}
+	}
+
+	public void removeExpired() {
+		if (ttl > 0) {
+			removeExpired(SystemClock.elapsedRealtime());
+		}
+	}
+
+	private void removeExpired(long now) {
+		lastExpiration = now;
+		for (Iterator<Peripheral> iterator = peripherals.values().iterator(); iterator.hasNext(); ) {
+			Peripheral peripheral = iterator.next();
+			if (peripheral.isEvictable() && now - peripheral.getLastSeen() > ttl) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private boolean evictLeastRecentlySeen() {
+		String eldest = null;
+		long eldestSeen = Long.MAX_VALUE;
+		for (Map.Entry<String, Peripheral> entry : peripherals.entrySet()) {
+			Peripheral peripheral = entry.getValue();
+			if (peripheral.isEvictable() && peripheral.getLastSeen() < eldestSeen) {
+				eldest = entry.getKey();
+				eldestSeen = peripheral.getLastSeen();
+			}
+		}
+		if (eldest == null) {
+			return false;
+		}
+		peripherals.remove(eldest);
+		return true;
+	}
+}
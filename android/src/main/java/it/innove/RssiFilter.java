@@ -0,0 +1,123 @@
+package it.innove;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Smoothing of the advertised RSSI of one peripheral, with an exponentially weighted moving average or a
+ * one dimensional Kalman filter, and the distance estimated from the smoothed value.
+ * Only used on the BLE thread.
+ */
+public class RssiFilter {
+
+	// value reported by the controller when the RSSI is not available
+	public static final int RSSI_UNAVAILABLE = 127;
+	// free space path loss at 1 meter for 2.4 GHz, subtracted from the advertised TX power
+	private static final int PATH_LOSS_AT_ONE_METER = 41;
+
+	public static class Settings {
+		private boolean kalman = false;
+		private double alpha = 0.3;
+		private double processNoise = 0.5;
+		private double measurementNoise = 8;
+		private int interval = 1000;
+		private double pathLossExponent = 2;
+		// calibrated RSSI at 1 meter, used instead of the advertised TX power
+		private int measuredPower = AdvertisingData.NO_TX_POWER_LEVEL;
+
+		// null when the smoothing is not enabled
+		public static Settings fromOptions(ReadableMap options) {
+			if (!options.hasKey("rssiFilter")) {
+				return null;
+			}
+
+			ReadableMap map = options.getMap("rssiFilter");
+			Settings settings = new Settings();
+			if (map.hasKey("type")) {
+				settings.kalman = "kalman".equals(map.getString("type"));
+			}
+			if (map.hasKey("alpha")) {
+				settings.alpha = map.getDouble("alpha");
+			}
+			if (map.hasKey("processNoise")) {
+				settings.processNoise = map.getDouble("processNoise");
+			}
+			if (map.hasKey("measurementNoise")) {
+				settings.measurementNoise = map.getDouble("measurementNoise");
+			}
+			if (map.hasKey("interval")) {
+				settings.interval = map.getInt("interval");
+			}
+			if (map.hasKey("pathLossExponent")) {
+				settings.pathLossExponent = map.getDouble("pathLossExponent");
+			}
+			if (map.hasKey("measuredPower")) {
+				settings.measuredPower = map.getInt("measuredPower");
+			}
+			return settings;
+		}
+	}
+
+	private final Settings settings;
+	private boolean initialized = false;
+	private double estimate;
+	private double variance;
+	private long reportedTimestamp = 0;
+
+	public RssiFilter(Settings settings) {
+		this.settings = settings;
+	}
+
+	public boolean hasSettings(Settings settings) {
+		return this.settings == settings;
+	}
+
+	public void update(int rssi) {
+		if (!initialized) {
+			estimate = rssi;
+			variance = settings.kalman ? settings.measurementNoise : 0;
+			initialized = true;
+			return;
+		}
+
+		if (settings.kalman) {
+			double predicted = variance + settings.processNoise;
+			double gain = predicted / (predicted + settings.measurementNoise);
+			estimate += gain * (rssi - estimate);
+			variance = (1 - gain) * predicted;
+		} else {
+			double difference = rssi - estimate;
+			double increment = settings.alpha * difference;
+			estimate += increment;
+			variance = (1 - settings.alpha) * (variance + difference * increment);
+		}
+	}
+
+	public double getRssi() {
+		return estimate;
+	}
+
+	public double getVariance() {
+		return variance;
+	}
+
+	// distance in meters from the log-distance path loss model, -1 when the power at 1 meter is unknown
+	public double getDistance(int txPowerLevel) {
+		int power = settings.measuredPower;
+		if (power == AdvertisingData.NO_TX_POWER_LEVEL && txPowerLevel != AdvertisingData.NO_TX_POWER_LEVEL) {
+			power = txPowerLevel - PATH_LOSS_AT_ONE_METER;
+		}
+		if (power == AdvertisingData.NO_TX_POWER_LEVEL) {
+			return -1;
+		}
+		return Math.pow(10, (power - estimate) / (10 * settings.pathLossExponent));
+	}
+
+	// the smoothed values are sent at most once for each interval
+	public boolean isReportDue(long now) {
+		return reportedTimestamp == 0 || now - reportedTimestamp >= settings.interval;
+	}
+
+	public void markReported(long now) {
+		reportedTimestamp = now;
+	}
+}
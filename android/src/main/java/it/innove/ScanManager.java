@@ -2,27 +2,102 @@ package it.innove;
 
 
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanSettings;
 import android.content.Context;
+import android.util.Log;
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Callback;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
 
 public abstract class ScanManager {
 
+	// Android silently ignores the scans started more than 5 times in 30 seconds
+	private static final int MAX_SCAN_STARTS = 5;
+	private static final int SCAN_START_WINDOW = 30000;
+	private static final int SCAN_RESTART_DELAY = 1000;
+	// scan modes of the continuous scan, from the lowest power to the lowest latency
+	private static final int[] SCAN_MODES = {
+			ScanSettings.SCAN_MODE_LOW_POWER,
+			ScanSettings.SCAN_MODE_BALANCED,
+			ScanSettings.SCAN_MODE_LOW_LATENCY
+	};
+
 	protected BluetoothAdapter bluetoothAdapter;
 	protected Context context;
 	protected ReactContext reactContext;
 	protected BleManager bleManager;
-	protected AtomicInteger scanSessionId = new AtomicInteger();
+
+	// discovery batching, disabled when batchInterval is 0
+	private int batchInterval = 0;
+	private int batchSize = 0;
+	// key is the MAC Address, a peripheral seen twice in the same window is sent once
+	private final Map<String, Peripheral> pendingDiscoveries = new LinkedHashMap<>();
+	// duplicate suppression, a known peripheral is sent again only when its advertising changed enough
+	private boolean allowDuplicates = true;
+	private int duplicateRssiDelta = 0;
+	private int duplicateInterval = 0;
+	private int discoverySession = 0;
+	// null when every advertisement is accepted
+	private AdvertisingFilter filter;
+	// null when the RSSI is not smoothed
+	private RssiFilter.Settings rssiSettings;
+	private final Scheduler bleScheduler;
+	// start time of the recent scans, used to stay under the scan start limit
+	private final ArrayDeque<Long> scanStarts = new ArrayDeque<>();
+	// continuous scan, the scanner runs for onWindow and rests for offWindow until the scan is stopped
+	private boolean continuous = false;
+	private int onWindow;
+	private int offWindow;
+	private boolean escalate;
+	private int scanMode;
+	private int windowDiscoveries;
+	private final Runnable startWindow = new Runnable() {
+		@Override
+		public void run() {
+			startWindow();
+		}
+	};
+	private final Runnable endWindow = new Runnable() {
+		@Override
+		public void run() {
+			endWindow();
+		}
+	};
+	private final Runnable flushDiscoveries = new Runnable() {
+		@Override
+		public void run() {
+			flushDiscoveries();
+		}
+	};
+	// one timer for all the scans, rescheduled by each scan and removed by stopScan
+	private final Runnable scanTimeout = new Runnable() {
+		@Override
+		public void run() {
+			onScanTimeout();
+		}
+	};
 
 	public ScanManager(ReactApplicationContext reactContext, BleManager bleManager) {
+		this(reactContext, bleManager, BleThreadUtil.getBleScheduler());
+	}
+
+	ScanManager(ReactApplicationContext reactContext, BleManager bleManager, Scheduler bleScheduler) {
 		context = reactContext;
 		this.reactContext = reactContext;
 		this.bleManager = bleManager;
+		this.bleScheduler = bleScheduler;
 	}
 
 	protected BluetoothAdapter getBluetoothAdapter() {
@@ -35,5 +110,286 @@ public abstract class ScanManager {
 
 	public abstract void stopScan(Callback callback);
 
-	public abstract void scan(ReadableArray serviceUUIDs, final int scanSeconds, ReadableMap options, Callback callback);
+	public abstract void scan(ReadableArray serviceUUIDs, final int scanSeconds, boolean allowDuplicates, ReadableMap options, Callback callback);
+
+	// called on the BLE thread when the scanSeconds of the last scan are elapsed
+	protected abstract void onScanTimeout();
+
+	// start the scanner with the settings of the current scan, called on the BLE thread
+	protected abstract void startScanning(int scanMode);
+
+	protected abstract void stopScanning();
+
+	// start the scanner once, or the duty cycle when the continuous option is given
+	protected void startScanner(int scanMode, ReadableMap options) {
+		stopContinuousScan();
+		if (!options.hasKey("continuous")) {
+			scanStarts.addLast(bleScheduler.now());
+			startScanning(scanMode);
+			return;
+		}
+
+		ReadableMap map = options.getMap("continuous");
+		onWindow = map.hasKey("onWindow") ? map.getInt("onWindow") : 10000;
+		offWindow = map.hasKey("offWindow") ? map.getInt("offWindow") : 5000;
+		escalate = !map.hasKey("escalate") || map.getBoolean("escalate");
+		this.scanMode = escalate ? SCAN_MODES[0] : scanMode;
+		continuous = true;
+		startWindow();
+	}
+
+	// stop the duty cycle, the scanner itself is stopped by the caller
+	protected void stopContinuousScan() {
+		continuous = false;
+		bleScheduler.removeCallbacks(startWindow);
+		bleScheduler.removeCallbacks(endWindow);
+	}
+
+	// restart the continuous scan after a failure, false if the scan is not continuous
+	protected boolean restartAfterFailure() {
+		if (!continuous) {
+			return false;
+		}
+		bleScheduler.removeCallbacks(endWindow);
+		bleScheduler.removeCallbacks(startWindow);
+		stopScanning();
+		bleScheduler.postDelayed(startWindow, SCAN_RESTART_DELAY);
+		return true;
+	}
+
+	// milliseconds to wait before the scanner can be started again without hitting the limit
+	private long scanStartDelay(long now) {
+		while (!scanStarts.isEmpty() && now - scanStarts.peekFirst() >= SCAN_START_WINDOW) {
+			scanStarts.pollFirst();
+		}
+		if (scanStarts.size() < MAX_SCAN_STARTS) {
+			return 0;
+		}
+		return scanStarts.peekFirst() + SCAN_START_WINDOW - now;
+	}
+
+	private void startWindow() {
+		long now = bleScheduler.now();
+		long delay = scanStartDelay(now);
+		if (delay > 0) {
+			bleScheduler.postDelayed(startWindow, delay);
+			return;
+		}
+
+		scanStarts.addLast(now);
+		windowDiscoveries = 0;
+		startScanning(scanMode);
+		bleScheduler.postDelayed(endWindow, onWindow);
+	}
+
+	private void endWindow() {
+		int nextMode = nextScanMode();
+		// without a rest the scanner is restarted only to change the mode, and only when the limit allows it
+		if (offWindow <= 0 && (nextMode == scanMode || scanStartDelay(bleScheduler.now()) > 0)) {
+			windowDiscoveries = 0;
+			bleScheduler.postDelayed(endWindow, onWindow);
+			return;
+		}
+
+		stopScanning();
+		scanMode = nextMode;
+		bleScheduler.postDelayed(startWindow, offWindow);
+	}
+
+	// a peripheral accepted during the current window of a continuous scan
+	void countWindowDiscovery() {
+		windowDiscoveries++;
+	}
+
+	// a faster mode while peripherals are found, a slower one when the last window found nothing
+	private int nextScanMode() {
+		if (!escalate) {
+			return scanMode;
+		}
+		int level = 0;
+		while (level < SCAN_MODES.length - 1 && SCAN_MODES[level] != scanMode) {
+			level++;
+		}
+		if (windowDiscoveries > 0) {
+			level = Math.min(level + 1, SCAN_MODES.length - 1);
+		} else {
+			level = Math.max(level - 1, 0);
+		}
+		return SCAN_MODES[level];
+	}
+
+	// replace the timer of the previous scan, no timer is set when scanSeconds is 0
+	protected void scheduleScanTimeout(int scanSeconds) {
+		bleScheduler.removeCallbacks(scanTimeout);
+		if (scanSeconds > 0) {
+			bleScheduler.postDelayed(scanTimeout, scanSeconds * 1000);
+		}
+	}
+
+	protected void cancelScanTimeout() {
+		bleScheduler.removeCallbacks(scanTimeout);
+	}
+
+	// read the discovery options shared by all the scan managers, call before starting a scan
+	// false when the options are not valid, the callback has then been invoked with the error
+	protected boolean startDiscovery(ReadableArray serviceUUIDs, final boolean allowDuplicates, ReadableMap options, Callback callback) {
+		if (options.hasKey("continuous")) {
+			ReadableMap map = options.getMap("continuous");
+			// an empty window would restart itself without delay and keep the BLE thread busy
+			if (map.hasKey("onWindow") && map.getInt("onWindow") <= 0) {
+				callback.invoke("Invalid continuous scan: onWindow must be greater than 0");
+				return false;
+			}
+			if (map.hasKey("offWindow") && map.getInt("offWindow") < 0) {
+				callback.invoke("Invalid continuous scan: offWindow must not be negative");
+				return false;
+			}
+		}
+		final AdvertisingFilter advertisingFilter;
+		try {
+			advertisingFilter = AdvertisingFilter.fromOptions(serviceUUIDs, options);
+		} catch (PatternSyntaxException e) {
+			callback.invoke("Invalid nameRegex: " + e.getDescription());
+			return false;
+		} catch (IllegalArgumentException e) {
+			// a malformed UUID of the service or service data filters
+			callback.invoke("Invalid filter: " + e.getMessage());
+			return false;
+		}
+		final RssiFilter.Settings rssiFilterSettings = RssiFilter.Settings.fromOptions(options);
+		final int interval = options.hasKey("batchInterval") ? options.getInt("batchInterval") : 0;
+		final int size = options.hasKey("batchSize") ? options.getInt("batchSize") : 0;
+		final int rssiDelta = options.hasKey("duplicateRssiDelta") ? options.getInt("duplicateRssiDelta") : 0;
+		final int minInterval = options.hasKey("duplicateInterval") ? options.getInt("duplicateInterval") : 0;
+		bleScheduler.post(new Runnable() {
+			@Override
+			public void run() {
+				flushDiscoveries();
+				batchInterval = interval;
+				batchSize = size;
+				ScanManager.this.allowDuplicates = allowDuplicates;
+				duplicateRssiDelta = rssiDelta;
+				duplicateInterval = minInterval;
+				filter = advertisingFilter;
+				rssiSettings = rssiFilterSettings;
+				// every peripheral is sent at least once in each scan
+				discoverySession++;
+			}
+		});
+		return true;
+	}
+
+	// send what is left in the current batch, call when the scan is stopped
+	protected void stopDiscovery() {
+		bleScheduler.post(flushDiscoveries);
+	}
+
+	// must be called on the BLE thread
+	protected void onDiscoverPeripheral(BluetoothDevice device, int rssi, byte[] scanRecord) {
+		Peripheral peripheral = updatePeripheral(device, rssi, scanRecord);
+		if (peripheral == null || !shouldReport(peripheral)) {
+			return;
+		}
+
+		if (batchInterval <= 0) {
+			WritableMap map = peripheral.asWritableMap();
+			bleManager.sendEvent("BleManagerDiscoverPeripheral", map);
+			return;
+		}
+
+		if (pendingDiscoveries.isEmpty()) {
+			bleScheduler.postDelayed(flushDiscoveries, batchInterval);
+		}
+		pendingDiscoveries.put(device.getAddress(), peripheral);
+		if (batchSize > 0 && pendingDiscoveries.size() >= batchSize) {
+			flushDiscoveries();
+		}
+	}
+
+	// add the peripheral to the discovered ones or refresh its advertising, must be called on the BLE thread
+	// null when the advertisement is rejected by the filter, the peripheral is not stored in that case
+	protected Peripheral updatePeripheral(BluetoothDevice device, int rssi, byte[] scanRecord) {
+		String address = device.getAddress();
+		Peripheral peripheral = bleManager.peripherals.get(address);
+
+		if (filter != null) {
+			if (!filter.matches(address, rssi)) {
+				return null;
+			}
+			AdvertisingData data = peripheral != null ? peripheral.parseAdvertisingData(scanRecord) : AdvertisingData.parse(scanRecord);
+			if (!filter.matches(data, device.getName())) {
+				return null;
+			}
+		}
+
+		Log.i(bleManager.LOG_TAG, "DiscoverPeripheral: " + device.getName());
+		countWindowDiscovery();
+		if (peripheral == null) {
+			peripheral = bleManager.createPeripheral(device, rssi, scanRecord);
+			bleManager.peripherals.put(address, peripheral);
+		} else {
+			peripheral.updateRssi(rssi);
+			peripheral.updateData(scanRecord);
+		}
+		updateProximity(peripheral, rssi);
+		return peripheral;
+	}
+
+	// smooth the RSSI and send the BleManagerUpdateProximity event, at most once for each interval
+	private void updateProximity(Peripheral peripheral, int rssi) {
+		if (rssiSettings == null || rssi == RssiFilter.RSSI_UNAVAILABLE) {
+			return;
+		}
+
+		RssiFilter rssiFilter = peripheral.getRssiFilter(rssiSettings);
+		rssiFilter.update(rssi);
+		long now = bleScheduler.now();
+		if (!rssiFilter.isReportDue(now)) {
+			return;
+		}
+		rssiFilter.markReported(now);
+
+		WritableMap map = Arguments.createMap();
+		map.putString("peripheral", peripheral.getDevice().getAddress());
+		map.putInt("rssi", rssi);
+		map.putDouble("smoothedRssi", rssiFilter.getRssi());
+		map.putDouble("variance", rssiFilter.getVariance());
+		double distance = rssiFilter.getDistance(peripheral.getParsedAdvertisingData().getTxPowerLevel());
+		if (distance >= 0) {
+			map.putDouble("distance", distance);
+		}
+		bleManager.sendEvent("BleManagerUpdateProximity", map);
+	}
+
+	// false if the peripheral was already sent and its advertising did not change enough since then
+	protected boolean shouldReport(Peripheral peripheral) {
+		long now = bleScheduler.now();
+		if (!allowDuplicates && !peripheral.needsReport(discoverySession, duplicateRssiDelta, duplicateInterval, now)) {
+			return false;
+		}
+		peripheral.markReported(discoverySession, now);
+		return true;
+	}
+
+	// send the peripherals in a single BleManagerDiscoverPeripherals event
+	protected void sendDiscoveries(Collection<Peripheral> peripherals) {
+		WritableArray array = Arguments.createArray();
+		for (Peripheral peripheral : peripherals) {
+			array.pushMap(peripheral.asWritableMap());
+		}
+
+		WritableMap map = Arguments.createMap();
+		map.putArray("peripherals", array);
+		bleManager.sendEvent("BleManagerDiscoverPeripherals", map);
+	}
+
+	private void flushDiscoveries() {
+		bleScheduler.removeCallbacks(flushDiscoveries);
+		if (pendingDiscoveries.isEmpty()) {
+			return;
+		}
+
+		sendDiscoveries(pendingDiscoveries.values());
+		pendingDiscoveries.clear();
+	}
 }
@@ -0,0 +1,17 @@
+package it.innove;
+
+/**
+ * The timers and the clock of the BLE thread. The classes driven by time use it instead of a Handler and
+ * SystemClock, so their timers can be run by a fake clock on the JVM.
+ */
+interface Scheduler {
+
+	void post(Runnable runnable);
+
+	void postDelayed(Runnable runnable, long delay);
+
+	void removeCallbacks(Runnable runnable);
+
+	// milliseconds since an arbitrary origin, not changed by the wall clock
+	long now();
+}
@@ -0,0 +1,116 @@
+package it.innove;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdvertisingDataTest {
+
+	// advertising data and scan response of common devices, the last one zero padded to 62 bytes like the records
+	// of the legacy scan API
+	static final String IBEACON =
+			"0201061AFF4C000215E2C56DB5DFFB48D2B060D0F5A71096E000010002C5";
+	static final String EDDYSTONE_URL =
+			"0201060303AAFE0D16AAFE10EB03676F6F676C6507";
+	private static final String NORDIC_UART =
+			"02010621079ECADC240EE5A9E093F3A3B50100406E9ECADC240EE5A9E093F3" +
+			"A3B50300406E0C09546865726D6F6D65746572000000000000000000000000";
+
+	@Test
+	public void parsesIBeacon() {
+		AdvertisingData data = AdvertisingData.parse(bytes(IBEACON));
+
+		assertEquals(0x06, data.getFlags());
+		assertEquals(1, data.getManufacturerData().size());
+		byte[] apple = data.getManufacturerData().get(0x004C);
+		// type 0x02, length 0x15, proximity UUID, major 1, minor 2, measured power -59
+		assertEquals(23, apple.length);
+		assertEquals(0x02, apple[0]);
+		assertEquals(0x15, apple[1]);
+		assertArrayEquals(bytes("E2C56DB5DFFB48D2B060D0F5A71096E0"), Arrays.copyOfRange(apple, 2, 18));
+		assertArrayEquals(bytes("00010002"), Arrays.copyOfRange(apple, 18, 22));
+		assertEquals(-59, apple[22]);
+		assertTrue(data.getServiceUUIDs().isEmpty());
+		assertNull(data.getLocalName());
+		assertFalse(data.hasTxPowerLevel());
+	}
+
+	@Test
+	public void parsesEddystoneServiceData() {
+		AdvertisingData data = AdvertisingData.parse(bytes(EDDYSTONE_URL));
+
+		UUID eddystone = UUID.fromString("0000feaa-0000-1000-8000-00805f9b34fb");
+		assertEquals(Arrays.asList(eddystone), data.getServiceUUIDs());
+		// URL frame, tx power -21, https://, "google", ".org"
+		assertArrayEquals(bytes("10EB03676F6F676C6507"), data.getServiceData().get(eddystone));
+	}
+
+	@Test
+	public void parses128BitUUIDList() {
+		AdvertisingData data = AdvertisingData.parse(bytes(NORDIC_UART));
+
+		assertEquals(Arrays.asList(
+				UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e"),
+				UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e")), data.getServiceUUIDs());
+		assertEquals("Thermometer", data.getLocalName());
+	}
+
+	@Test
+	public void stopsAtZeroPadding() {
+		AdvertisingData data = AdvertisingData.parse(bytes(NORDIC_UART));
+
+		assertEquals(0x06, data.getFlags());
+		assertEquals(2, data.getServiceUUIDs().size());
+		assertTrue(data.getManufacturerData().isEmpty());
+		assertTrue(data.getServiceData().isEmpty());
+	}
+
+	@Test
+	public void keepsTheStructuresBeforeATruncatedOne() {
+		// TX power -12, then a name announced with 9 bytes but only 4 present
+		AdvertisingData data = AdvertisingData.parse(bytes("020106" + "020AF4" + "0A0948656174"));
+
+		assertEquals(0x06, data.getFlags());
+		assertEquals(-12, data.getTxPowerLevel());
+		assertNull(data.getLocalName());
+	}
+
+	@Test
+	public void completeNameWinsOverShortenedName() {
+		// shortened name before the complete one
+		AdvertisingData data = AdvertisingData.parse(bytes("050848656174" + "0A09486561744D65746572"));
+		assertEquals("HeatMeter", data.getLocalName());
+
+		// complete name before the shortened one
+		data = AdvertisingData.parse(bytes("0A09486561744D65746572" + "050848656174"));
+		assertEquals("HeatMeter", data.getLocalName());
+
+		// only the shortened name
+		data = AdvertisingData.parse(bytes("050848656174"));
+		assertEquals("Heat", data.getLocalName());
+	}
+
+	@Test
+	public void emptyRecord() {
+		AdvertisingData data = AdvertisingData.parse(null);
+
+		assertEquals(AdvertisingData.NO_FLAGS, data.getFlags());
+		assertTrue(data.getServiceUUIDs().isEmpty());
+		assertNull(data.getLocalName());
+	}
+
+	static byte[] bytes(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,100 @@
+package it.innove;
+
+import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.WritableArray;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchContextTest {
+
+	// the arguments of each call of the batch callback
+	private List<Object[]> calls;
+
+	@Before
+	public void setUp() {
+		calls = new ArrayList<>();
+	}
+
+	// the results are built with Arguments, which needs the native bridge
+	private BatchContext batch(int size, boolean stopOnError) {
+		return new BatchContext(size, stopOnError, new Callback() {
+			@Override
+			public void invoke(Object... args) {
+				calls.add(args);
+			}
+		}) {
+			@Override
+			WritableArray results() {
+				return null;
+			}
+		};
+	}
+
+	@Test
+	public void resultsKeepTheOrderOfTheBatch() {
+		BatchContext batch = batch(3, false);
+		Callback first = batch.callbackFor(0);
+		Callback second = batch.callbackFor(1);
+		Callback third = batch.callbackFor(2);
+
+		third.invoke(null, "c");
+		first.invoke(null, "a");
+		assertTrue(calls.isEmpty());
+		second.invoke("Read failed");
+
+		assertEquals(1, calls.size());
+		assertNull(calls.get(0)[0]);
+		assertEquals("a", batch.getValue(0));
+		assertNull(batch.getError(0));
+		assertEquals("Read failed", batch.getError(1));
+		assertNull(batch.getValue(1));
+		assertEquals("c", batch.getValue(2));
+	}
+
+	@Test
+	public void secondCompletionIsIgnored() {
+		BatchContext batch = batch(2, false);
+		Callback first = batch.callbackFor(0);
+		first.invoke(null, "a");
+		// a late callback of the same operation must not count as the other one
+		first.invoke("Timeout");
+		assertTrue(calls.isEmpty());
+		assertNull(batch.getError(0));
+
+		batch.callbackFor(1).invoke((Object) null);
+		assertEquals(1, calls.size());
+	}
+
+	@Test
+	public void errorStopsTheBatchOnlyWithStopOnError() {
+		BatchContext batch = batch(2, false);
+		batch.callbackFor(0).invoke("Write failed");
+		assertFalse(batch.isStopped());
+
+		batch = batch(2, true);
+		batch.callbackFor(0).invoke((Object) null);
+		assertFalse(batch.isStopped());
+		batch.callbackFor(1).invoke("Write failed");
+		assertTrue(batch.isStopped());
+	}
+
+	@Test
+	public void cancelledOperationsStillComplete() {
+		BatchContext batch = batch(3, true);
+		batch.callbackFor(0).invoke("Write failed");
+		batch.callbackFor(1).invoke(ErrorTypes.CANCELLED);
+		batch.callbackFor(2).invoke(ErrorTypes.CANCELLED);
+
+		assertEquals(1, calls.size());
+		assertEquals(ErrorTypes.CANCELLED, batch.getError(2));
+	}
+}
@@ -0,0 +1,109 @@
+package it.innove;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkCursorTest {
+
+	private static byte[] payload(int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (i * 31 + 7);
+		}
+		return data;
+	}
+
+	// the chunks written one after the other, as the peripheral receives them
+	private static byte[] reassemble(ChunkCursor cursor, int chunkSize) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		while (cursor.hasNext()) {
+			byte[] chunk = cursor.current();
+			assertTrue(chunk.length <= chunkSize);
+			out.write(chunk, 0, chunk.length);
+			cursor.advance();
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void reassemblesFromOneKilobyteToOneMegabyte() {
+		int[] lengths = {1024, 4096 + 3, 64 * 1024, 1024 * 1024};
+		int[] chunkSizes = {1, 20, 182, 244, 512};
+		for (int length : lengths) {
+			byte[] data = payload(length);
+			for (int chunkSize : chunkSizes) {
+				// a one byte chunk over a megabyte is only slow, not useful
+				if (chunkSize == 1 && length > 4096 + 3) {
+					continue;
+				}
+				assertArrayEquals(data, reassemble(new ChunkCursor(data, chunkSize), chunkSize));
+			}
+		}
+	}
+
+	@Test
+	public void emptyPayloadHasNoChunk() {
+		ChunkCursor cursor = new ChunkCursor(new byte[0], 20);
+		assertFalse(cursor.hasNext());
+	}
+
+	@Test
+	public void payloadShorterThanAChunk() {
+		byte[] data = payload(5);
+		ChunkCursor cursor = new ChunkCursor(data, 20);
+		assertArrayEquals(data, cursor.current());
+		cursor.advance();
+		assertFalse(cursor.hasNext());
+	}
+
+	@Test
+	public void lastChunkIsPartial() {
+		byte[] data = payload(45);
+		ChunkCursor cursor = new ChunkCursor(data, 20);
+		cursor.advance();
+		cursor.advance();
+		byte[] last = cursor.current();
+		assertEquals(5, last.length);
+		for (int i = 0; i < last.length; i++) {
+			assertEquals(data[40 + i], last[i]);
+		}
+		cursor.advance();
+		assertFalse(cursor.hasNext());
+	}
+
+	@Test
+	public void fullChunksReuseOneBuffer() {
+		byte[] data = payload(1024 * 1024);
+		ChunkCursor cursor = new ChunkCursor(data, 244);
+		byte[] first = cursor.current();
+		assertEquals(244, first.length);
+		cursor.advance();
+		// no copy of the payload per chunk, every full chunk is copied into the same buffer
+		while (cursor.hasNext()) {
+			byte[] chunk = cursor.current();
+			if (chunk.length == 244) {
+				assertSame(first, chunk);
+			}
+			cursor.advance();
+		}
+	}
+
+	@Test
+	public void currentDoesNotMoveTheCursor() {
+		byte[] data = payload(40);
+		ChunkCursor cursor = new ChunkCursor(data, 20);
+		byte[] chunk = cursor.current();
+		byte[] again = cursor.current();
+		assertSame(chunk, again);
+		assertEquals(data[0], again[0]);
+		cursor.advance();
+		assertEquals(data[20], cursor.current()[0]);
+	}
+}
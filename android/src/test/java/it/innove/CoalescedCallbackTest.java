@@ -0,0 +1,94 @@
+package it.innove;
+
+import com.facebook.react.bridge.Callback;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CoalescedCallbackTest {
+
+	// the arguments each merged read callback was invoked with, in order
+	private List<Object[]> calls;
+	private int invokedCount;
+
+	@Before
+	public void setUp() {
+		calls = new ArrayList<>();
+		invokedCount = 0;
+	}
+
+	private Callback recording() {
+		return new Callback() {
+			@Override
+			public void invoke(Object... args) {
+				calls.add(args);
+			}
+		};
+	}
+
+	private CoalescedCallback coalesced() {
+		return new CoalescedCallback(recording()) {
+			@Override
+			protected void onInvoked() {
+				invokedCount++;
+			}
+		};
+	}
+
+	@Test
+	public void errorFansOutToEveryRead() {
+		CoalescedCallback callback = coalesced();
+		assertTrue(callback.add(recording()));
+		assertTrue(callback.add(recording()));
+
+		callback.invoke("Read failed");
+		assertEquals(3, calls.size());
+		for (Object[] args : calls) {
+			assertEquals("Read failed", args[0]);
+		}
+		assertEquals(1, invokedCount);
+	}
+
+	@Test
+	public void valueFansOutToEveryRead() {
+		CoalescedCallback callback = coalesced();
+		callback.add(recording());
+
+		// base64 so the value does not need the native bridge
+		callback.invokeValue(new byte[]{1, 2, 3}, true);
+		assertEquals(2, calls.size());
+		for (Object[] args : calls) {
+			assertEquals(2, args.length);
+			assertNull(args[0]);
+		}
+		assertEquals(1, invokedCount);
+	}
+
+	@Test
+	public void resultIsSentOnce() {
+		CoalescedCallback callback = coalesced();
+		callback.invoke("Read failed");
+		// a late result, a timeout after the read already failed
+		callback.invokeValue(new byte[]{1}, true);
+		callback.invoke("Timeout");
+
+		assertEquals(1, calls.size());
+		assertEquals(1, invokedCount);
+	}
+
+	@Test
+	public void readAfterTheResultIsNotMerged() {
+		CoalescedCallback callback = coalesced();
+		callback.invoke((Object) null);
+		assertFalse(callback.add(recording()));
+		assertEquals(1, calls.size());
+	}
+}
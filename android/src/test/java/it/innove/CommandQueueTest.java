@@ -0,0 +1,223 @@
+package it.innove;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CommandQueueTest {
+
+	private static final UUID SERVICE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+	private static final UUID FIRST = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+	private static final UUID SECOND = UUID.fromString("00002a38-0000-1000-8000-00805f9b34fb");
+
+	/**
+	 * Records the commands the queue starts instead of calling a BluetoothGatt, the GATT callbacks are
+	 * simulated by the tests.
+	 */
+	private static class FakeGatt implements CommandQueue.Executor {
+		final List<BLECommand> started = new ArrayList<>();
+		final List<BLECommand> timedOut = new ArrayList<>();
+		// false makes the commands finish without a GATT callback
+		boolean expectCallback = true;
+
+		@Override
+		public boolean execute(BLECommand command) {
+			started.add(command);
+			return expectCallback;
+		}
+
+		@Override
+		public void timeout(BLECommand command) {
+			timedOut.add(command);
+		}
+	}
+
+	private FakeScheduler scheduler;
+	private FakeGatt gatt;
+	private CommandQueue queue;
+
+	@Before
+	public void setUp() {
+		scheduler = new FakeScheduler();
+		gatt = new FakeGatt();
+		queue = new CommandQueue(scheduler, gatt);
+	}
+
+	private static BLECommand read(UUID characteristic, int lane) {
+		BLECommand command = new BLECommand(SERVICE, characteristic, null, null, null, BLECommand.READ);
+		command.setLane(lane);
+		return command;
+	}
+
+	@Test
+	public void commandsRunOneAtATime() {
+		BLECommand first = read(FIRST, CommandQueue.LANE_NORMAL);
+		BLECommand second = read(SECOND, CommandQueue.LANE_NORMAL);
+		queue.add(first);
+		queue.add(second);
+
+		assertEquals(1, gatt.started.size());
+		assertSame(first, queue.getCurrent());
+		queue.completed();
+		assertEquals(2, gatt.started.size());
+		assertSame(second, queue.getCurrent());
+		queue.completed();
+		assertNull(queue.getCurrent());
+		assertEquals(CommandQueue.State.IDLE, queue.getState());
+		assertEquals(0, scheduler.pendingTimers());
+	}
+
+	@Test
+	public void deadlineFailsTheCommandAndStartsTheNext() {
+		BLECommand first = read(FIRST, CommandQueue.LANE_NORMAL);
+		BLECommand second = read(SECOND, CommandQueue.LANE_NORMAL);
+		queue.add(first);
+		queue.add(second);
+
+		scheduler.advance(CommandQueue.DEFAULT_TIMEOUT - 1);
+		assertTrue(gatt.timedOut.isEmpty());
+		scheduler.advance(1);
+		assertEquals(1, gatt.timedOut.size());
+		assertSame(first, gatt.timedOut.get(0));
+		assertSame(second, queue.getCurrent());
+
+		// the next command gets a deadline of its own
+		scheduler.advance(CommandQueue.DEFAULT_TIMEOUT);
+		assertEquals(2, gatt.timedOut.size());
+		assertSame(second, gatt.timedOut.get(1));
+		assertNull(queue.getCurrent());
+	}
+
+	@Test
+	public void progressRestartsTheDeadline() {
+		queue.add(read(FIRST, CommandQueue.LANE_NORMAL));
+
+		scheduler.advance(CommandQueue.DEFAULT_TIMEOUT - 1);
+		queue.progress();
+		scheduler.advance(CommandQueue.DEFAULT_TIMEOUT - 1);
+		assertTrue(gatt.timedOut.isEmpty());
+		scheduler.advance(1);
+		assertEquals(1, gatt.timedOut.size());
+	}
+
+	@Test
+	public void lateCallbackDoesNotMatchTheRunningCommand() {
+		queue.add(read(FIRST, CommandQueue.LANE_NORMAL));
+		queue.add(read(SECOND, CommandQueue.LANE_NORMAL));
+		scheduler.advance(CommandQueue.DEFAULT_TIMEOUT);
+
+		// the callback of the command that timed out arrives while the second one runs
+		assertFalse(queue.isRunning(BLECommand.READ, FIRST));
+		assertFalse(queue.isRunning(BLECommand.REGISTER_NOTIFY, null));
+		assertTrue(queue.isRunning(BLECommand.READ, SECOND));
+		assertTrue(queue.isRunning(BLECommand.READ, null));
+	}
+
+	@Test
+	public void disableTimeout() {
+		queue.setTimeout(0);
+		queue.add(read(FIRST, CommandQueue.LANE_NORMAL));
+
+		assertEquals(0, scheduler.pendingTimers());
+		scheduler.advance(10 * CommandQueue.DEFAULT_TIMEOUT);
+		assertTrue(gatt.timedOut.isEmpty());
+	}
+
+	@Test
+	public void commandsWithoutCallbackDoNotBlockTheQueue() {
+		gatt.expectCallback = false;
+		queue.add(read(FIRST, CommandQueue.LANE_NORMAL));
+		queue.add(read(SECOND, CommandQueue.LANE_NORMAL));
+
+		assertEquals(2, gatt.started.size());
+		assertNull(queue.getCurrent());
+		assertEquals(0, scheduler.pendingTimers());
+	}
+
+	@Test
+	public void disconnectClearsTheQueue() {
+		BLECommand first = read(FIRST, CommandQueue.LANE_NORMAL);
+		BLECommand second = read(SECOND, CommandQueue.LANE_NORMAL);
+		BLECommand third = read(SECOND, CommandQueue.LANE_BULK);
+		queue.add(first);
+		queue.add(second);
+		queue.add(third);
+
+		List<BLECommand> removed = queue.clear();
+		assertEquals(2, removed.size());
+		assertTrue(removed.contains(second));
+		assertTrue(removed.contains(third));
+		assertNull(queue.getCurrent());
+		assertEquals(0, scheduler.pendingTimers());
+
+		// a callback arriving after the disconnection completes nothing
+		assertFalse(queue.isRunning(BLECommand.READ, FIRST));
+		queue.completed();
+		scheduler.advance(CommandQueue.DEFAULT_TIMEOUT);
+		assertTrue(gatt.timedOut.isEmpty());
+		assertEquals(1, gatt.started.size());
+
+		// the queue is usable after a new connection
+		BLECommand next = read(FIRST, CommandQueue.LANE_NORMAL);
+		queue.add(next);
+		assertSame(next, queue.getCurrent());
+	}
+
+	@Test
+	public void interactiveLaneRunsFirst() {
+		queue.add(read(FIRST, CommandQueue.LANE_BULK));
+		BLECommand bulk = read(SECOND, CommandQueue.LANE_BULK);
+		BLECommand interactive = read(SECOND, CommandQueue.LANE_INTERACTIVE);
+		queue.add(bulk);
+		queue.add(interactive);
+
+		assertTrue(queue.hasUrgentCommands());
+		queue.completed();
+		assertSame(interactive, queue.getCurrent());
+		assertFalse(queue.hasUrgentCommands());
+		queue.completed();
+		assertSame(bulk, queue.getCurrent());
+	}
+
+	@Test
+	public void bulkLaneDoesNotStarve() {
+		queue.add(read(FIRST, CommandQueue.LANE_BULK));
+		BLECommand bulk = read(SECOND, CommandQueue.LANE_BULK);
+		queue.add(bulk);
+		for (int i = 0; i < 5; i++) {
+			queue.add(read(FIRST, CommandQueue.LANE_INTERACTIVE));
+		}
+
+		// passed over four times, then served before the last interactive command
+		for (int i = 0; i < 5; i++) {
+			queue.completed();
+			assertEquals(i < 4 ? CommandQueue.LANE_INTERACTIVE : CommandQueue.LANE_BULK, queue.getCurrent().getLane());
+		}
+		assertSame(bulk, queue.getCurrent());
+		queue.completed();
+		assertEquals(CommandQueue.LANE_INTERACTIVE, queue.getCurrent().getLane());
+	}
+
+	@Test
+	public void yieldLetsTheUrgentCommandRunAndResumesAfter() {
+		BLECommand bulk = read(FIRST, CommandQueue.LANE_BULK);
+		BLECommand interactive = read(SECOND, CommandQueue.LANE_INTERACTIVE);
+		queue.add(bulk);
+		queue.add(interactive);
+
+		queue.yield();
+		assertSame(interactive, queue.getCurrent());
+		queue.completed();
+		assertSame(bulk, queue.getCurrent());
+		assertEquals(3, gatt.started.size());
+	}
+}
@@ -0,0 +1,166 @@
+package it.innove;
+
+import android.bluetooth.BluetoothGatt;
+
+import com.facebook.react.bridge.JavaOnlyMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionPriorityControllerTest {
+
+	private static final int BALANCED = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+	private static final int HIGH = BluetoothGatt.CONNECTION_PRIORITY_HIGH;
+	private static final int LOW_POWER = BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER;
+
+	private FakeScheduler scheduler;
+	// the priorities sent to the stack
+	private List<Integer> requests;
+	private boolean busy;
+	private boolean refused;
+	private ConnectionPriorityController controller;
+
+	@Before
+	public void setUp() {
+		scheduler = new FakeScheduler();
+		requests = new ArrayList<>();
+		busy = false;
+		refused = false;
+		controller = new ConnectionPriorityController(scheduler, new ConnectionPriorityController.Link() {
+			@Override
+			public boolean requestConnectionPriority(int priority) {
+				requests.add(priority);
+				return !refused;
+			}
+
+			@Override
+			public boolean isBusy() {
+				return busy;
+			}
+		});
+	}
+
+	private static ConnectionPriorityPolicy policy(Object... settings) {
+		return ConnectionPriorityPolicy.fromOptions(JavaOnlyMap.of("connectionPriorityPolicy", JavaOnlyMap.of(settings)));
+	}
+
+	@Test
+	public void withoutPolicyTheRaisedPriorityStays() {
+		controller.raise();
+		assertEquals(HIGH, controller.getPriority());
+
+		controller.onBulkCommand();
+		controller.onNotification();
+		scheduler.advance(60000);
+		assertEquals(1, requests.size());
+		assertEquals(HIGH, controller.getPriority());
+		assertEquals(0, scheduler.pendingTimers());
+	}
+
+	@Test
+	public void bulkCommandRaisesUntilIdle() {
+		controller.setPolicy(policy("idleTimeout", 2000, "idlePriority", LOW_POWER));
+		controller.onBulkCommand();
+		assertEquals(HIGH, controller.getPriority());
+
+		// a second bulk command restarts the idle timeout without asking the stack again
+		scheduler.advance(1500);
+		controller.onBulkCommand();
+		assertEquals(1, requests.size());
+		scheduler.advance(1999);
+		assertEquals(HIGH, controller.getPriority());
+		scheduler.advance(1);
+		assertEquals(LOW_POWER, controller.getPriority());
+		assertEquals(2, requests.size());
+	}
+
+	@Test
+	public void busyLinkKeepsTheHighPriority() {
+		controller.setPolicy(policy("idleTimeout", 1000));
+		controller.onBulkCommand();
+		busy = true;
+
+		scheduler.advance(5000);
+		assertEquals(HIGH, controller.getPriority());
+		busy = false;
+		scheduler.advance(1000);
+		assertEquals(BALANCED, controller.getPriority());
+	}
+
+	@Test
+	public void fastNotificationsRaise() {
+		controller.setPolicy(policy("notificationRate", 3));
+		scheduler.advance(5000);
+
+		controller.onNotification();
+		controller.onNotification();
+		assertTrue(requests.isEmpty());
+		// the count starts again in each one second window
+		scheduler.advance(1000);
+		controller.onNotification();
+		controller.onNotification();
+		assertTrue(requests.isEmpty());
+		controller.onNotification();
+		assertEquals(HIGH, controller.getPriority());
+	}
+
+	@Test
+	public void refusedRequestKeepsThePriority() {
+		refused = true;
+		assertFalse(controller.request(LOW_POWER));
+		assertEquals(BALANCED, controller.getPriority());
+		refused = false;
+		assertTrue(controller.request(LOW_POWER));
+		assertEquals(LOW_POWER, controller.getPriority());
+	}
+
+	@Test
+	public void resetRemovesTheIdleTimer() {
+		controller.setPolicy(policy("idleTimeout", 1000, "idlePriority", LOW_POWER));
+		controller.onBulkCommand();
+		controller.reset();
+
+		assertEquals(BALANCED, controller.getPriority());
+		assertEquals(0, scheduler.pendingTimers());
+		scheduler.advance(5000);
+		assertEquals(1, requests.size());
+	}
+
+	@Test
+	public void policyIsOptional() {
+		assertNull(ConnectionPriorityPolicy.fromOptions(new JavaOnlyMap()));
+		ConnectionPriorityPolicy policy = policy();
+		assertEquals(5000, policy.getIdleTimeout());
+		assertEquals(BALANCED, policy.getIdlePriority());
+		assertEquals(10, policy.getNotificationRate());
+	}
+
+	@Test
+	public void policyOutOfRangeIsRejected() {
+		Object[][] invalid = {
+				{"idlePriority", 3},
+				{"idlePriority", -1},
+				{"idleTimeout", 0},
+				{"notificationRate", 0}
+		};
+		for (Object[] settings : invalid) {
+			try {
+				policy(settings);
+				fail(settings[0] + " " + settings[1] + " accepted");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		assertTrue(ConnectionPriorityPolicy.isValid(LOW_POWER));
+		assertFalse(ConnectionPriorityPolicy.isValid(3));
+	}
+}
@@ -0,0 +1,75 @@
+package it.innove;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Scheduler whose clock only moves when the test advances it, the timers due are run in time order.
+ */
+class FakeScheduler implements Scheduler {
+
+	private static class Timer {
+		final Runnable runnable;
+		final long time;
+
+		Timer(Runnable runnable, long time) {
+			this.runnable = runnable;
+			this.time = time;
+		}
+	}
+
+	private final List<Timer> timers = new ArrayList<>();
+	private long now = 0;
+
+	@Override
+	public void post(Runnable runnable) {
+		postDelayed(runnable, 0);
+	}
+
+	@Override
+	public void postDelayed(Runnable runnable, long delay) {
+		timers.add(new Timer(runnable, now + delay));
+	}
+
+	@Override
+	public void removeCallbacks(Runnable runnable) {
+		for (int i = timers.size() - 1; i >= 0; i--) {
+			if (timers.get(i).runnable == runnable) {
+				timers.remove(i);
+			}
+		}
+	}
+
+	@Override
+	public long now() {
+		return now;
+	}
+
+	// move the clock forward, running the timers due on the way
+	void advance(long delay) {
+		long end = now + delay;
+		Timer next = nextTimer(end);
+		while (next != null) {
+			timers.remove(next);
+			now = next.time;
+			next.runnable.run();
+			next = nextTimer(end);
+		}
+		now = end;
+	}
+
+	int pendingTimers() {
+		return timers.size();
+	}
+
+	// the earliest timer due before end, the first posted one among equal times
+	private Timer nextTimer(long end) {
+		Timer next = null;
+		for (Timer timer : timers) {
+			if (timer.time <= end && (next == null || timer.time < next.time)) {
+				next = timer;
+			}
+		}
+		return next;
+	}
+}
@@ -0,0 +1,106 @@
+package it.innove;
+
+import com.facebook.react.bridge.JavaOnlyMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationRingBufferTest {
+
+	private static NotificationRingBuffer buffer(Object... options) {
+		return NotificationRingBuffer.fromOptions(JavaOnlyMap.of(options), 20, false);
+	}
+
+	// the values as numbers, the value v is the single byte v and arrives at time v * 10
+	private static void add(NotificationRingBuffer buffer, int from, int to) {
+		for (int v = from; v <= to; v++) {
+			buffer.add(new byte[]{(byte) v}, v * 10);
+		}
+	}
+
+	private static void assertValues(NotificationRingBuffer buffer, int... expected) {
+		assertEquals(expected.length, buffer.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertArrayEquals(new byte[]{(byte) expected[i]}, buffer.get(i));
+			assertEquals(expected[i] * 10, buffer.getTimestamp(i));
+		}
+	}
+
+	@Test
+	public void noBufferWithoutBufferSize() {
+		assertNull(buffer());
+		assertNull(buffer("overflow", "latestOnly"));
+	}
+
+	@Test
+	public void valuesAreKeptInArrivalOrder() {
+		NotificationRingBuffer buffer = buffer("bufferSize", 4);
+		add(buffer, 1, 3);
+		assertValues(buffer, 1, 2, 3);
+		assertEquals(0, buffer.getDropped());
+	}
+
+	@Test
+	public void dropOldestKeepsTheNewestValues() {
+		NotificationRingBuffer buffer = buffer("bufferSize", 3);
+		add(buffer, 1, 3);
+		// only the first value lost since the last drain is reported
+		assertTrue(buffer.add(new byte[]{4}, 40));
+		assertFalse(buffer.add(new byte[]{5}, 50));
+		assertValues(buffer, 3, 4, 5);
+		assertEquals(2, buffer.getDropped());
+	}
+
+	@Test
+	public void dropNewestKeepsTheOldestValues() {
+		NotificationRingBuffer buffer = buffer("bufferSize", 3, "overflow", "dropNewest");
+		add(buffer, 1, 3);
+		assertTrue(buffer.add(new byte[]{4}, 40));
+		assertFalse(buffer.add(new byte[]{5}, 50));
+		assertValues(buffer, 1, 2, 3);
+		assertEquals(2, buffer.getDropped());
+	}
+
+	@Test
+	public void latestOnlyKeepsOneValue() {
+		NotificationRingBuffer buffer = buffer("bufferSize", 10, "overflow", "latestOnly");
+		add(buffer, 1, 5);
+		assertValues(buffer, 5);
+		assertEquals(4, buffer.getDropped());
+	}
+
+	@Test
+	public void removeWrapsAroundAndResetsTheDropCount() {
+		NotificationRingBuffer buffer = buffer("bufferSize", 3);
+		add(buffer, 1, 4);
+		assertTrue(buffer.getDropped() > 0);
+
+		buffer.remove(2);
+		assertValues(buffer, 4);
+		assertEquals(0, buffer.getDropped());
+
+		// the slots freed at the start of the arrays are reused after the end
+		add(buffer, 5, 6);
+		assertValues(buffer, 4, 5, 6);
+		assertTrue(buffer.add(new byte[]{7}, 70));
+		assertValues(buffer, 5, 6, 7);
+	}
+
+	@Test
+	public void longerValueGrowsTheSlots() {
+		NotificationRingBuffer buffer = buffer("bufferSize", 3, "maxPacketSize", 2);
+		buffer.add(new byte[]{1, 2}, 10);
+		buffer.add(new byte[]{3}, 20);
+		byte[] longer = {4, 5, 6, 7, 8};
+		buffer.add(longer, 30);
+
+		assertArrayEquals(new byte[]{1, 2}, buffer.get(0));
+		assertArrayEquals(new byte[]{3}, buffer.get(1));
+		assertArrayEquals(longer, buffer.get(2));
+	}
+}
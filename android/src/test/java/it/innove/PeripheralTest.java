@@ -0,0 +1,50 @@
+package it.innove;
+
+import org.junit.Test;
+
+import static it.innove.AdvertisingDataTest.EDDYSTONE_URL;
+import static it.innove.AdvertisingDataTest.IBEACON;
+import static it.innove.AdvertisingDataTest.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PeripheralTest {
+
+	@Test
+	public void sameAdvertisingIsParsedOnce() {
+		Peripheral peripheral = new Peripheral(null, -60, bytes(IBEACON), null);
+
+		AdvertisingData parsed = peripheral.getParsedAdvertisingData();
+		assertSame(parsed, peripheral.getParsedAdvertisingData());
+		// an equal scan record received again, as the scan callbacks do for every advertisement
+		assertSame(parsed, peripheral.parseAdvertisingData(bytes(IBEACON)));
+		peripheral.updateData(bytes(IBEACON));
+		assertSame(parsed, peripheral.getParsedAdvertisingData());
+	}
+
+	@Test
+	public void changedAdvertisingIsParsedAgain() {
+		Peripheral peripheral = new Peripheral(null, -60, bytes(IBEACON), null);
+		AdvertisingData parsed = peripheral.getParsedAdvertisingData();
+
+		peripheral.updateData(bytes(EDDYSTONE_URL));
+		AdvertisingData changed = peripheral.getParsedAdvertisingData();
+		assertNotSame(parsed, changed);
+		assertTrue(changed.getManufacturerData().isEmpty());
+		assertEquals(1, changed.getServiceData().size());
+		assertSame(changed, peripheral.getParsedAdvertisingData());
+	}
+
+	@Test
+	public void recordOfAnotherAdvertisingIsNotCached() {
+		Peripheral peripheral = new Peripheral(null, -60, bytes(IBEACON), null);
+		AdvertisingData parsed = peripheral.getParsedAdvertisingData();
+
+		// a scan record filtered out before it is stored does not replace the cache
+		AdvertisingData other = peripheral.parseAdvertisingData(bytes(EDDYSTONE_URL));
+		assertNotSame(parsed, other);
+		assertSame(parsed, peripheral.getParsedAdvertisingData());
+	}
+}
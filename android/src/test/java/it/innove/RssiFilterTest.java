@@ -0,0 +1,95 @@
+package it.innove;
+
+import com.facebook.react.bridge.JavaOnlyMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RssiFilterTest {
+
+	private static RssiFilter filter(Object... settings) {
+		return new RssiFilter(RssiFilter.Settings.fromOptions(JavaOnlyMap.of("rssiFilter", JavaOnlyMap.of(settings))));
+	}
+
+	@Test
+	public void disabledWithoutOptions() {
+		assertNull(RssiFilter.Settings.fromOptions(new JavaOnlyMap()));
+	}
+
+	@Test
+	public void firstValueIsTakenAsIs() {
+		RssiFilter ewma = filter();
+		ewma.update(-60);
+		assertEquals(-60, ewma.getRssi(), 0.001);
+
+		RssiFilter kalman = filter("type", "kalman");
+		kalman.update(-60);
+		assertEquals(-60, kalman.getRssi(), 0.001);
+		assertEquals(8, kalman.getVariance(), 0.001);
+	}
+
+	@Test
+	public void movingAverageFollowsAlpha() {
+		RssiFilter filter = filter("alpha", 0.5);
+		filter.update(-60);
+		filter.update(-70);
+		assertEquals(-65, filter.getRssi(), 0.001);
+		filter.update(-70);
+		assertEquals(-67.5, filter.getRssi(), 0.001);
+	}
+
+	@Test
+	public void kalmanWeighsTheMeasurementByItsNoise() {
+		RssiFilter filter = filter("type", "kalman", "processNoise", 0.5, "measurementNoise", 8.0);
+		filter.update(-60);
+		filter.update(-80);
+		// gain 8.5 / 16.5
+		assertEquals(-60 - 20 * 8.5 / 16.5, filter.getRssi(), 0.001);
+		assertEquals((1 - 8.5 / 16.5) * 8.5, filter.getVariance(), 0.001);
+	}
+
+	@Test
+	public void noisyValuesAreSmoothed() {
+		RssiFilter[] filters = {filter(), filter("type", "kalman")};
+		for (RssiFilter filter : filters) {
+			for (int i = 0; i < 100; i++) {
+				filter.update(i % 2 == 0 ? -60 : -70);
+			}
+			// the raw values jump by 10 dB, the estimate stays close to their mean
+			assertTrue(filter.getRssi() > -68 && filter.getRssi() < -62);
+		}
+	}
+
+	@Test
+	public void distanceFromThePowerAtOneMeter() {
+		RssiFilter filter = filter("measuredPower", -59, "pathLossExponent", 2.0);
+		filter.update(-59);
+		assertEquals(1, filter.getDistance(AdvertisingData.NO_TX_POWER_LEVEL), 0.001);
+
+		filter = filter("measuredPower", -59, "pathLossExponent", 2.0);
+		filter.update(-79);
+		assertEquals(10, filter.getDistance(AdvertisingData.NO_TX_POWER_LEVEL), 0.001);
+	}
+
+	@Test
+	public void distanceFromTheAdvertisedTxPower() {
+		RssiFilter filter = filter();
+		filter.update(-59);
+		assertEquals(-1, filter.getDistance(AdvertisingData.NO_TX_POWER_LEVEL), 0.001);
+		// 41 dB of path loss at one meter
+		assertEquals(1, filter.getDistance(-18), 0.001);
+	}
+
+	@Test
+	public void reportsAreRateLimited() {
+		RssiFilter filter = filter("interval", 1000);
+		assertTrue(filter.isReportDue(5000));
+		filter.markReported(5000);
+		assertFalse(filter.isReportDue(5999));
+		assertTrue(filter.isReportDue(6000));
+	}
+}
@@ -0,0 +1,220 @@
+package it.innove;
+
+import android.bluetooth.le.ScanSettings;
+
+import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ScanManagerTest {
+
+	private FakeScheduler scheduler;
+	private int timeouts;
+	// time and scan mode of each start of the scanner
+	private List<Long> startTimes;
+	private List<Integer> startModes;
+	private ScanManager scanManager;
+
+	@Before
+	public void setUp() {
+		scheduler = new FakeScheduler();
+		timeouts = 0;
+		startTimes = new ArrayList<>();
+		startModes = new ArrayList<>();
+		scanManager = new ScanManager(null, null, scheduler) {
+			@Override
+			public void stopScan(Callback callback) {
+			}
+
+			@Override
+			public void scan(ReadableArray serviceUUIDs, int scanSeconds, boolean allowDuplicates, ReadableMap options, Callback callback) {
+			}
+
+			@Override
+			protected void onScanTimeout() {
+				timeouts++;
+			}
+
+			@Override
+			protected void startScanning(int scanMode) {
+				startTimes.add(scheduler.now());
+				startModes.add(scanMode);
+			}
+
+			@Override
+			protected void stopScanning() {
+			}
+		};
+	}
+
+	@Test
+	public void timeoutFiresAfterScanSeconds() {
+		scanManager.scheduleScanTimeout(10);
+
+		scheduler.advance(9999);
+		assertEquals(0, timeouts);
+		scheduler.advance(1);
+		assertEquals(1, timeouts);
+		assertEquals(0, scheduler.pendingTimers());
+	}
+
+	@Test
+	public void newScanReplacesTheTimer() {
+		scanManager.scheduleScanTimeout(10);
+		scheduler.advance(5000);
+		scanManager.scheduleScanTimeout(10);
+
+		assertEquals(1, scheduler.pendingTimers());
+		scheduler.advance(9999);
+		assertEquals(0, timeouts);
+		scheduler.advance(1);
+		assertEquals(1, timeouts);
+	}
+
+	@Test
+	public void stopScanCancelsTheTimer() {
+		scanManager.scheduleScanTimeout(10);
+		scanManager.cancelScanTimeout();
+
+		assertEquals(0, scheduler.pendingTimers());
+		scheduler.advance(60000);
+		assertEquals(0, timeouts);
+	}
+
+	@Test
+	public void noTimerWithoutScanSeconds() {
+		scanManager.scheduleScanTimeout(10);
+		scanManager.scheduleScanTimeout(0);
+
+		assertEquals(0, scheduler.pendingTimers());
+		scheduler.advance(60000);
+		assertEquals(0, timeouts);
+	}
+
+	private static JavaOnlyMap continuous(Object... settings) {
+		return JavaOnlyMap.of("continuous", JavaOnlyMap.of(settings));
+	}
+
+	@Test
+	public void continuousScanStaysUnderTheStartLimit() {
+		scanManager.startScanner(ScanSettings.SCAN_MODE_LOW_LATENCY, continuous("onWindow", 1000, "offWindow", 1000, "escalate", false));
+		scheduler.advance(120000);
+
+		// a window every 2 seconds, but never more than 5 starts in 30 seconds
+		assertTrue(startTimes.size() > 5);
+		for (int i = 0; i + 5 < startTimes.size(); i++) {
+			assertTrue(startTimes.get(i + 5) - startTimes.get(i) >= 30000);
+		}
+		int firstWindow = 0;
+		for (long time : startTimes) {
+			if (time < 30000) {
+				firstWindow++;
+			}
+		}
+		assertEquals(5, firstWindow);
+		assertEquals(30000, (long) startTimes.get(5));
+	}
+
+	@Test
+	public void scanModeEscalatesWhilePeripheralsAreFound() {
+		scanManager.startScanner(ScanSettings.SCAN_MODE_BALANCED, continuous("onWindow", 1000, "offWindow", 1000));
+		assertEquals(ScanSettings.SCAN_MODE_LOW_POWER, (int) startModes.get(0));
+
+		int[] expected = {
+				ScanSettings.SCAN_MODE_BALANCED,
+				ScanSettings.SCAN_MODE_LOW_LATENCY,
+				ScanSettings.SCAN_MODE_LOW_LATENCY
+		};
+		for (int mode : expected) {
+			scanManager.countWindowDiscovery();
+			scheduler.advance(2000);
+			assertEquals(mode, (int) startModes.get(startModes.size() - 1));
+		}
+
+		// nothing found, one step slower for each empty window
+		scheduler.advance(2000);
+		assertEquals(ScanSettings.SCAN_MODE_BALANCED, (int) startModes.get(startModes.size() - 1));
+		// the sixth start waits for the start limit
+		scheduler.advance(2000);
+		assertEquals(5, startModes.size());
+		scheduler.advance(30000 - scheduler.now());
+		assertEquals(6, startModes.size());
+		assertEquals(ScanSettings.SCAN_MODE_LOW_POWER, (int) startModes.get(5));
+	}
+
+	@Test
+	public void noRestWindowRestartsOnlyToChangeTheMode() {
+		scanManager.startScanner(ScanSettings.SCAN_MODE_BALANCED, continuous("onWindow", 1000, "offWindow", 0));
+		scheduler.advance(60000);
+		assertEquals(1, startTimes.size());
+
+		scanManager.countWindowDiscovery();
+		scheduler.advance(1000);
+		assertEquals(2, startTimes.size());
+		assertEquals(ScanSettings.SCAN_MODE_BALANCED, (int) startModes.get(1));
+	}
+
+	@Test
+	public void stopContinuousScanRemovesTheTimers() {
+		scanManager.startScanner(ScanSettings.SCAN_MODE_BALANCED, continuous("onWindow", 1000, "offWindow", 1000));
+		scanManager.stopContinuousScan();
+
+		assertEquals(0, scheduler.pendingTimers());
+		scheduler.advance(60000);
+		assertEquals(1, startTimes.size());
+	}
+
+	@Test
+	public void emptyWindowsAreRejected() {
+		final List<Object> errors = new ArrayList<>();
+		Callback callback = new Callback() {
+			@Override
+			public void invoke(Object... args) {
+				errors.add(args.length > 0 ? args[0] : null);
+			}
+		};
+
+		assertFalse(scanManager.startDiscovery(null, true, continuous("onWindow", 0, "offWindow", 0), callback));
+		assertFalse(scanManager.startDiscovery(null, true, continuous("offWindow", -1), callback));
+		assertEquals(2, errors.size());
+		assertNotNull(errors.get(0));
+		assertNotNull(errors.get(1));
+		assertEquals(0, scheduler.pendingTimers());
+	}
+
+	@Test
+	public void invalidFiltersAreRejected() {
+		final List<Object> errors = new ArrayList<>();
+		Callback callback = new Callback() {
+			@Override
+			public void invoke(Object... args) {
+				errors.add(args.length > 0 ? args[0] : null);
+			}
+		};
+
+		assertFalse(scanManager.startDiscovery(null, true, JavaOnlyMap.of("filter", JavaOnlyMap.of("nameRegex", "[a-")), callback));
+		assertFalse(scanManager.startDiscovery(null, true, JavaOnlyMap.of("filter", JavaOnlyMap.of("serviceDataUUID", "not-a-uuid")), callback));
+		assertFalse(scanManager.startDiscovery(JavaOnlyArray.of("180D", "xyz"), true, new JavaOnlyMap(), callback));
+		assertEquals(3, errors.size());
+		assertTrue(((String) errors.get(0)).startsWith("Invalid nameRegex"));
+		assertTrue(((String) errors.get(1)).startsWith("Invalid filter"));
+		assertTrue(((String) errors.get(2)).startsWith("Invalid filter"));
+		assertEquals(0, scheduler.pendingTimers());
+
+		assertTrue(scanManager.startDiscovery(JavaOnlyArray.of("180D"), true, JavaOnlyMap.of("filter", JavaOnlyMap.of("nameRegex", "^Thermo")), callback));
+		assertEquals(3, errors.size());
+	}
+}